@@ -0,0 +1,15 @@
+package it.tangodev.ble.dbus4;
+
+import java.util.Map;
+
+import org.freedesktop.dbus.annotations.DBusInterfaceName;
+import org.freedesktop.dbus.interfaces.DBusInterface;
+import org.freedesktop.dbus.types.Variant;
+
+@DBusInterfaceName("org.bluez.GattCharacteristic1")
+public interface GattCharacteristic1 extends DBusInterface {
+	public byte[] ReadValue(Map<String, Variant<?>> option);
+	public void WriteValue(byte[] value, Map<String, Variant<?>> option);
+	public void StartNotify();
+	public void StopNotify();
+}
@@ -0,0 +1,8 @@
+package it.tangodev.ble.dbus4;
+
+import org.freedesktop.dbus.annotations.DBusInterfaceName;
+import org.freedesktop.dbus.interfaces.DBusInterface;
+
+@DBusInterfaceName("org.bluez.GattService1")
+public interface GattService1 extends DBusInterface {
+}
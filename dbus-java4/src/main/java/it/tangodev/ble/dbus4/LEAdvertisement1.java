@@ -0,0 +1,9 @@
+package it.tangodev.ble.dbus4;
+
+import org.freedesktop.dbus.annotations.DBusInterfaceName;
+import org.freedesktop.dbus.interfaces.DBusInterface;
+
+@DBusInterfaceName("org.bluez.LEAdvertisement1")
+public interface LEAdvertisement1 extends DBusInterface {
+	public void Release();
+}
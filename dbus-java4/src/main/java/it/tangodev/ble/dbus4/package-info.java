@@ -0,0 +1,5 @@
+/**
+ * The bluez interfaces the library exports, for dbus-java 4: it exports an object through the interfaces of its class.
+ * BleDBus4Transport exports the objects of the library, written for dbus-java 2.7, behind a proxy of these interfaces.
+ */
+package it.tangodev.ble.dbus4;
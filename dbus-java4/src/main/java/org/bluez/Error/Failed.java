@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class Failed extends DBusExecutionException {
+	public Failed(String message) {
+		super(message);
+	}
+}
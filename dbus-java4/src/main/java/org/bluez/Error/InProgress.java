@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class InProgress extends DBusExecutionException {
+	public InProgress(String message) {
+		super(message);
+	}
+}
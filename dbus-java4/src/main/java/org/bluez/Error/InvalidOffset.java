@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class InvalidOffset extends DBusExecutionException {
+	public InvalidOffset(String message) {
+		super(message);
+	}
+}
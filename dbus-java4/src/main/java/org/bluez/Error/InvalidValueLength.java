@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class InvalidValueLength extends DBusExecutionException {
+	public InvalidValueLength(String message) {
+		super(message);
+	}
+}
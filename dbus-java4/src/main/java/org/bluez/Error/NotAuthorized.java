@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class NotAuthorized extends DBusExecutionException {
+	public NotAuthorized(String message) {
+		super(message);
+	}
+}
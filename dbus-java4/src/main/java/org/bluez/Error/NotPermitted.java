@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class NotPermitted extends DBusExecutionException {
+	public NotPermitted(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,10 @@
+package org.bluez.Error;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+@SuppressWarnings("serial")
+public class NotSupported extends DBusExecutionException {
+	public NotSupported(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * The bluez errors for dbus-java 4, that names an error after the class of its exception:
+ * bluez turns org.bluez.Error.InvalidOffset and the others in their ATT error.
+ * org.bluez.Error of the main project has the same errors for dbus-java 2.7.
+ */
+package org.bluez.Error;
@@ -0,0 +1,63 @@
+package it.tangodev.ble;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A beacon payload update of an exported BleAdvertisement (encoding and PropertiesChanged signal),
+ * and BleAdvertisement.GetAll() when nothing changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdvertisementBenchmark {
+
+	private static final int COMPANY_ID = 0x004C;
+
+	private LocalBus bus;
+	private DBusConnection dbusConnection;
+	private BleAdvertisement advertisement;
+	private byte[][] payloads = new byte[2][20];
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		dbusConnection = bus.connect();
+		payloads[1][0] = 1;
+
+		advertisement = new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_BROADCAST, "/bench/advertisement");
+		advertisement.setIncludeTxPower(false);
+		advertisement.setManufacturerData(COMPANY_ID, payloads[0]);
+		advertisement.export(new BleDBusTransport(dbusConnection));
+	}
+
+	@TearDown
+	public void tearDown() throws DBusException {
+		advertisement.unexport(new BleDBusTransport(dbusConnection));
+		dbusConnection.disconnect();
+	}
+
+	@Benchmark
+	public void updatePayload() {
+		next ^= 1;
+		advertisement.setManufacturerData(COMPANY_ID, payloads[next]);
+	}
+
+	@Benchmark
+	public Map<String, ?> getAll() {
+		return advertisement.GetAll("org.bluez.LEAdvertisement1");
+	}
+
+}
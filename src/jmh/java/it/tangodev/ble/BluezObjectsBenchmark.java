@@ -0,0 +1,71 @@
+package it.tangodev.ble;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dbus.ObjectManager;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Adapter lookup on a bluez that knows many devices: GetManagedObjects() over the bus,
+ * as every lookup did before, compared with the query of the local mirror of a started application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BluezObjectsBenchmark {
+
+	@Param({ "0", "1000", "5000" })
+	private int devices;
+
+	private LocalBus bus;
+	private FakeBluez bluez;
+	private BleApplication application;
+	private ObjectManager bluezObjectManager;
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		bluez = FakeBluez.start(bus);
+		for (int i = 0; i < devices; i++) {
+			bluez.addDevice(FakeBluez.ADAPTER_PATH, String.format("00:00:00:00:%02X:%02X", i / 256, i % 256), false);
+		}
+
+		application = new BleApplication("/bench", null);
+		application.setBusAddress(bus.getAddress());
+		application.setSupervised(false);
+		application.addService(new BleService("/bench/s0", "13333333-3333-3333-3333-333333333001", true));
+		application.start();
+
+		DBusConnection dbusConnection = DBusConnection.getConnection(bus.getAddress());
+		bluezObjectManager = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Benchmark
+	public Map<Path, ?> getManagedObjects() {
+		return bluezObjectManager.GetManagedObjects();
+	}
+
+	@Benchmark
+	public List<String> mirrorAdapterLookup() {
+		return application.getBluezObjects().getPaths(BleApplication.BLUEZ_GATT_INTERFACE, BleApplication.BLUEZ_LE_ADV_INTERFACE);
+	}
+
+}
@@ -0,0 +1,83 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * BleApplication.notifyCharacteristics() on 1000 subscribed characteristics of a started application,
+ * compared with one sendNotification() per characteristic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkNotificationBenchmark {
+
+	@Param({ "1000" })
+	private int characteristics;
+
+	private LocalBus bus;
+	private FakeBluez bluez;
+	private BleApplication application;
+	private Map<BleCharacteristic, byte[]> values = new LinkedHashMap<BleCharacteristic, byte[]>();
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		bluez = FakeBluez.start(bus);
+
+		application = new BleApplication("/bench", null);
+		application.setBusAddress(bus.getAddress());
+		List<CharacteristicFlag> flags = Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY);
+		int perService = 100;
+		for (int s = 0; s * perService < characteristics; s++) {
+			String servicePath = "/bench/s" + s;
+			BleService service = new BleService(servicePath, String.format("13333333-3333-3333-3333-%012d", s), s == 0);
+			for (int c = 0; c < perService && s * perService + c < characteristics; c++) {
+				BleCharacteristic characteristic = new BleCharacteristic(servicePath + "/c" + c, service, flags,
+						String.format("23333333-3333-3333-%04d-%012d", s, c), null);
+				service.addCharacteristic(characteristic);
+				// as if a central was subscribed
+				characteristic.StartNotify();
+				values.put(characteristic, new byte[] { (byte) s, (byte) c, 0, 0, 0, 0, 0, 0 });
+			}
+			application.addService(service);
+		}
+		application.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Benchmark
+	public int notifyCharacteristics() throws DBusException {
+		return application.notifyCharacteristics(values);
+	}
+
+	@Benchmark
+	public int sendNotificationLoop() {
+		for (Map.Entry<BleCharacteristic, byte[]> value : values.entrySet()) {
+			value.getKey().sendNotification(value.getValue());
+		}
+		return values.size();
+	}
+
+}
@@ -0,0 +1,121 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A ReadValue call and a notification on the two D-Bus backends, through the same dbus-daemon.
+ * dbus-java 2.7 goes over TCP, its unix socket needs a native library; dbus-java 4 goes over the unix socket
+ * of the JDK, as it does with bluez. The caller and the exported characteristic are on two connections
+ * of the same backend, so a read is a full round trip through the daemon.
+ * Needs /usr/bin/dbus-daemon and Java 16 or better.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DBusBackendBenchmark {
+
+	private SystemBus bus;
+	private DBusConnection dbusServer;
+	private DBusConnection dbusClient;
+	private BleTransport dbusTransport;
+	private BleDBus4Transport dbus4Server;
+	private BleDBus4Transport dbus4Client;
+	private BleService dbusService;
+	private BleService dbus4Service;
+	private BleCharacteristic dbusCharacteristic;
+	private BleCharacteristic dbus4Characteristic;
+	private GattCharacteristic1 dbusRemote;
+	private GattCharacteristic1 dbus4Remote;
+	// GattCharacteristic1 takes the options as a raw Variant map
+	@SuppressWarnings("rawtypes")
+	private Map<String, Variant> options = new HashMap<String, Variant>();
+	private byte[] value = new byte[20];
+
+	@Setup
+	public void setup() throws Exception {
+		bus = SystemBus.start();
+		dbusServer = DBusConnection.getConnection(bus.getTcpAddress());
+		dbusTransport = new BleDBusTransport(dbusServer);
+		dbus4Server = BleDBus4Transport.connect(bus.getUnixAddress());
+
+		dbusService = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		dbusCharacteristic = createCharacteristic(dbusService);
+		dbusService.export(dbusTransport);
+		dbus4Service = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		dbus4Characteristic = createCharacteristic(dbus4Service);
+		dbus4Service.export(dbus4Server);
+
+		dbusClient = DBusConnection.getConnection(bus.getPeerTcpAddress());
+		dbusRemote = dbusClient.getRemoteObject(dbusServer.getUniqueName(), "/bench/s/c", GattCharacteristic1.class);
+		dbus4Client = BleDBus4Transport.connect(bus.getUnixAddress());
+		dbus4Remote = dbus4Client.getRemoteObject(dbus4Server.getUniqueName(), "/bench/s/c", GattCharacteristic1.class);
+		dbusCharacteristic.StartNotify();
+		dbus4Characteristic.StartNotify();
+	}
+
+	private BleCharacteristic createCharacteristic(BleService service) {
+		BleCharacteristic characteristic = new BleCharacteristic("/bench/s/c", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY),
+				"13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] newValue) {
+				value = newValue;
+			}
+
+			@Override
+			public byte[] getValue() {
+				return value;
+			}
+		});
+		service.addCharacteristic(characteristic);
+		return characteristic;
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		dbusService.unexport(dbusTransport);
+		dbus4Service.unexport(dbus4Server);
+		dbusClient.disconnect();
+		dbusServer.disconnect();
+		dbus4Client.disconnect();
+		dbus4Server.disconnect();
+		bus.stop();
+	}
+
+	@Benchmark
+	public byte[] dbusJavaRead() {
+		return dbusRemote.ReadValue(options);
+	}
+
+	@Benchmark
+	public byte[] dbusJava4Read() {
+		return dbus4Remote.ReadValue(options);
+	}
+
+	@Benchmark
+	public void dbusJavaNotification() {
+		dbusCharacteristic.sendNotification();
+	}
+
+	@Benchmark
+	public void dbusJava4Notification() {
+		dbus4Characteristic.sendNotification();
+	}
+
+}
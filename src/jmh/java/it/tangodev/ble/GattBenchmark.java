@@ -0,0 +1,153 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * BleCharacteristic.ReadValue() and WriteValue(), called directly and through the local bus
+ * as bluetoothd does (a second connection calling the exported characteristic).
+ * The long reads read the whole value in chunks of a 23 bytes ATT_MTU, from the listener and from a ByteBuffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GattBenchmark {
+
+	private static final int MTU = 23;
+
+	@Param({ "20", "512" })
+	private int valueLength;
+
+	private LocalBus bus;
+	private DBusConnection serverConnection;
+	private DBusConnection clientConnection;
+	private BleService service;
+	private BleCharacteristic characteristic;
+	private GattCharacteristic1 remoteCharacteristic;
+	// GattCharacteristic1 takes the options as a raw Variant map
+	@SuppressWarnings("rawtypes")
+	private Map<String, Variant> options = new HashMap<String, Variant>();
+	private byte[] value;
+	private byte[] writtenValue;
+	private BleCharacteristic byteBufferCharacteristic;
+	@SuppressWarnings("rawtypes")
+	private final List<Map<String, Variant>> longReadOptions = new ArrayList<Map<String, Variant>>();
+
+	@Setup
+	public void setup() throws Exception {
+		value = new byte[valueLength];
+		writtenValue = new byte[valueLength];
+
+		bus = LocalBus.start();
+		serverConnection = bus.connect();
+		service = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		characteristic = new BleCharacteristic("/bench/s/c", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE),
+				"13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] newValue) {
+				writtenValue = newValue;
+			}
+
+			@Override
+			public byte[] getValue() {
+				return value;
+			}
+		});
+		service.addCharacteristic(characteristic);
+		byteBufferCharacteristic = new BleCharacteristic("/bench/s/b", service, Arrays.asList(CharacteristicFlag.READ),
+				"13333333-3333-3333-3333-333333333003", null);
+		byteBufferCharacteristic.setValueSource(new BleByteBufferValueSource(ByteBuffer.wrap(value)));
+		service.addCharacteristic(byteBufferCharacteristic);
+		service.export(new BleDBusTransport(serverConnection));
+
+		int chunk = MTU - 1;
+		longReadOptions.clear();
+		for (int offset = 0; offset < valueLength; offset += chunk) {
+			longReadOptions.add(readOptions(offset));
+		}
+
+		clientConnection = DBusConnection.getConnection(bus.getPeerAddress());
+		remoteCharacteristic = clientConnection.getRemoteObject(serverConnection.getUniqueName(), "/bench/s/c", GattCharacteristic1.class);
+	}
+
+	@TearDown
+	public void tearDown() throws DBusException {
+		clientConnection.disconnect();
+		service.unexport(new BleDBusTransport(serverConnection));
+		serverConnection.disconnect();
+	}
+
+	@Benchmark
+	public byte[] readValue() {
+		return characteristic.ReadValue(options);
+	}
+
+	@Benchmark
+	public int longReadListener() {
+		int read = 0;
+		for (int i = 0; i < longReadOptions.size(); i++) {
+			read += characteristic.ReadValue(longReadOptions.get(i)).length;
+		}
+		return read;
+	}
+
+	@Benchmark
+	public int longReadByteBuffer() {
+		int read = 0;
+		for (int i = 0; i < longReadOptions.size(); i++) {
+			read += byteBufferCharacteristic.ReadValue(longReadOptions.get(i)).length;
+		}
+		return read;
+	}
+
+	@Benchmark
+	public byte[] writeValue() {
+		characteristic.WriteValue(value, options);
+		return writtenValue;
+	}
+
+	@Benchmark
+	public byte[] readValueOverBus() {
+		return remoteCharacteristic.ReadValue(options);
+	}
+
+	@Benchmark
+	public byte[] writeValueOverBus() {
+		remoteCharacteristic.WriteValue(value, options);
+		return writtenValue;
+	}
+
+	/**
+	 * The options bluez sends with one part of a long read.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Map<String, Variant> readOptions(int offset) {
+		Map<String, Variant> options = new HashMap<String, Variant>();
+		options.put("offset", new Variant<UInt16>(new UInt16(offset)));
+		options.put("mtu", new Variant<UInt16>(new UInt16(MTU)));
+		return options;
+	}
+
+}
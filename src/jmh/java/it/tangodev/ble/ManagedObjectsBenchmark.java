@@ -0,0 +1,71 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * BleApplication.GetManagedObjects() on a tree of 50 services and 500 characteristics,
+ * when the tree is unchanged and when one characteristic changed since the last call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManagedObjectsBenchmark {
+
+	@Param({ "50" })
+	private int services;
+
+	@Param({ "10" })
+	private int characteristicsPerService;
+
+	private BleApplication application;
+	private BleCharacteristic changingCharacteristic;
+
+	@Setup
+	public void setup() {
+		application = new BleApplication("/bench", null);
+		List<CharacteristicFlag> flags = Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE, CharacteristicFlag.NOTIFY);
+		for (int s = 0; s < services; s++) {
+			String servicePath = "/bench/s" + s;
+			BleService service = new BleService(servicePath, String.format("13333333-3333-3333-3333-%012d", s), s == 0);
+			for (int c = 0; c < characteristicsPerService; c++) {
+				BleCharacteristic characteristic = new BleCharacteristic(servicePath + "/c" + c, service, flags,
+						String.format("23333333-3333-3333-%04d-%012d", s, c), null);
+				service.addCharacteristic(characteristic);
+				changingCharacteristic = characteristic;
+			}
+			application.addService(service);
+		}
+	}
+
+	@Benchmark
+	public Map<Path, ?> unchangedTree() {
+		return application.GetManagedObjects();
+	}
+
+	@Benchmark
+	public Map<Path, ?> oneCharacteristicChanged() {
+		changingCharacteristic.invalidateProperties();
+		return application.GetManagedObjects();
+	}
+
+	@Benchmark
+	public Map<String, ?> getAll() {
+		return changingCharacteristic.GetAll("org.bluez.GattCharacteristic1");
+	}
+
+}
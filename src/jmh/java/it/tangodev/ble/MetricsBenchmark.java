@@ -0,0 +1,99 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The cost of the metrics on a ReadValue served through a loopback transport, where nothing else is in the way,
+ * with the default BleMetricsRegistry and with BleMetrics.NONE, and a timer updated by several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetricsBenchmark {
+
+	private BleLoopbackTransport loopback;
+	private BleApplication registryApplication;
+	private BleApplication noneApplication;
+	private GattCharacteristic1 registryRemote;
+	private GattCharacteristic1 noneRemote;
+	private BleMetrics.Timer timer;
+	// GattCharacteristic1 takes the options as a raw Variant map
+	@SuppressWarnings("rawtypes")
+	private Map<String, Variant> options = new HashMap<String, Variant>();
+	private byte[] value = new byte[20];
+
+	@Setup
+	public void setup() throws Exception {
+		loopback = new BleLoopbackTransport();
+		FakeBluez.start(loopback, 1, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		registryApplication = startApplication("/metrics/registry", new BleMetricsRegistry());
+		noneApplication = startApplication("/metrics/none", BleMetrics.NONE);
+		registryRemote = loopback.getExportedObject("/metrics/registry/s/c", GattCharacteristic1.class);
+		noneRemote = loopback.getExportedObject("/metrics/none/s/c", GattCharacteristic1.class);
+		timer = new BleMetricsRegistry().timer("bench_seconds");
+	}
+
+	private BleApplication startApplication(String path, BleMetrics metrics) throws Exception {
+		BleApplication application = new BleApplication(path, null);
+		BleService service = new BleService(path + "/s", "13333333-3333-3333-3333-333333333001", true);
+		BleCharacteristic characteristic = new BleCharacteristic(path + "/s/c", service, Arrays.asList(CharacteristicFlag.READ),
+				"13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] newValue) {
+				value = newValue;
+			}
+
+			@Override
+			public byte[] getValue() {
+				return value;
+			}
+		});
+		service.addCharacteristic(characteristic);
+		application.addService(service);
+		application.setMetrics(metrics);
+		application.setSupervised(false);
+		application.setTransport(loopback);
+		application.start();
+		return application;
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		registryApplication.stop();
+		noneApplication.stop();
+	}
+
+	@Benchmark
+	public byte[] readWithRegistry() {
+		return registryRemote.ReadValue(options);
+	}
+
+	@Benchmark
+	public byte[] readWithoutMetrics() {
+		return noneRemote.ReadValue(options);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void contendedTimer() {
+		timer.record(1500);
+	}
+
+}
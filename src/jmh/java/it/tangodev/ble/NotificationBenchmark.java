@@ -0,0 +1,93 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Notifications per second of BleCharacteristic.sendNotification() over the application's connection,
+ * compared with the previous implementation that opened a new connection for every notification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NotificationBenchmark {
+
+	private static final String GATT_CHARACTERISTIC_INTERFACE = "org.bluez.GattCharacteristic1";
+
+	private LocalBus bus;
+	private DBusConnection dbusConnection;
+	private BleService service;
+	private BleCharacteristic characteristic;
+	private byte[] value = new byte[20];
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		dbusConnection = bus.connect();
+
+		service = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		characteristic = new BleCharacteristic("/bench/s/c", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY),
+				"13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] newValue) {
+				value = newValue;
+			}
+
+			@Override
+			public byte[] getValue() {
+				return value;
+			}
+		});
+		service.addCharacteristic(characteristic);
+		service.export(new BleDBusTransport(dbusConnection));
+		// as if a central was subscribed
+		characteristic.StartNotify();
+	}
+
+	@TearDown
+	public void tearDown() throws DBusException {
+		service.unexport(new BleDBusTransport(dbusConnection));
+		dbusConnection.disconnect();
+	}
+
+	@Benchmark
+	public void sharedConnection() {
+		characteristic.sendNotification();
+	}
+
+	/**
+	 * The sendNotification() implementation before the shared connection: connect, send, disconnect.
+	 */
+	@Benchmark
+	public void connectPerNotification() throws DBusException {
+		DBusConnection notifyConnection = DBusConnection.getConnection(bus.getPeerAddress());
+
+		Variant<byte[]> signalValueVariant = new Variant<byte[]>(value);
+		@SuppressWarnings("rawtypes")
+		Map<String, Variant> signalValue = new HashMap<String, Variant>();
+		signalValue.put(BleCharacteristic.CHARACTERISTIC_VALUE_PROPERTY_KEY, signalValueVariant);
+
+		PropertiesChanged signal = new PropertiesChanged(characteristic.getPath().toString(), GATT_CHARACTERISTIC_INTERFACE, signalValue, new ArrayList<String>());
+		notifyConnection.sendSignal(signal);
+		notifyConnection.disconnect();
+	}
+
+}
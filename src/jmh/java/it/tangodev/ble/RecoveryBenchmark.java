@@ -0,0 +1,68 @@
+package it.tangodev.ble;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time from the restart of bluetoothd (a FakeBluez owning org.bluez again) to the new registration
+ * of a started application by its supervisor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecoveryBenchmark {
+
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	private LocalBus bus;
+	private FakeBluez bluez;
+	private BleApplication application;
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		bluez = FakeBluez.start(bus);
+
+		application = new BleApplication("/bench", null);
+		application.setBusAddress(bus.getAddress());
+		application.addService(new BleService("/bench/s0", "13333333-3333-3333-3333-333333333001", true));
+		application.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Benchmark
+	public boolean restartBluez() throws Exception {
+		bluez.stop();
+		long start = System.nanoTime();
+		while(application.isRegistered()) {
+			waitOrFail(start);
+		}
+		bluez = FakeBluez.start(bus);
+		start = System.nanoTime();
+		while(bluez.getRegisteredApplications() == 0 || !application.isRegistered()) {
+			waitOrFail(start);
+		}
+		return application.isRegistered();
+	}
+
+	private static void waitOrFail(long start) {
+		if(System.nanoTime() - start > TIMEOUT_NANOS) {
+			throw new IllegalStateException("Application not registered again");
+		}
+		Thread.yield();
+	}
+
+}
@@ -0,0 +1,105 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dbus.ObjectManager.InterfacesAdded;
+import org.dbus.ObjectManager.InterfacesRemoved;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The handlers that BleApplication registers for the bluez InterfacesAdded, InterfacesRemoved and PropertiesChanged signals,
+ * fed with the signals bluez sends when a device appears, disappears, connects and disconnects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SignalHandlerBenchmark {
+
+	private static final String DEVICE_PATH = "/org/bluez/hci0/dev_00_11_22_33_44_55";
+	private static final String DEVICE_ADDRESS = "00:11:22:33:44:55";
+
+	private DBusSigHandler<InterfacesAdded> interfacesAddedHandler;
+	private DBusSigHandler<InterfacesRemoved> interfacesRemovedHandler;
+	private DBusSigHandler<PropertiesChanged> propertiesChangedHandler;
+	private PropertiesChanged[] connectionChanges;
+	private int connectionChangeIndex = 0;
+	private InterfacesAdded deviceAdded;
+	private InterfacesRemoved deviceRemoved;
+
+	@Setup
+	public void setup() throws Exception {
+		BleApplication application = new BleApplication("/bench", new BleApplicationListener() {
+			@Override
+			public void deviceConnected(String id) {
+			}
+
+			@Override
+			public void deviceDisconnected(String id) {
+			}
+		});
+		application.createInterfacesHandlers();
+		Map<String, Map<String, Variant<?>>> adapterInterfaces = new HashMap<String, Map<String, Variant<?>>>();
+		adapterInterfaces.put(BleApplication.BLUEZ_GATT_INTERFACE, new HashMap<String, Variant<?>>());
+		adapterInterfaces.put(BleApplication.BLUEZ_LE_ADV_INTERFACE, new HashMap<String, Variant<?>>());
+		Map<Path, Map<String, Map<String, Variant<?>>>> bluezObjects = new HashMap<Path, Map<String, Map<String, Variant<?>>>>();
+		bluezObjects.put(new Path(FakeBluez.ADAPTER_PATH), adapterInterfaces);
+		application.getBluezObjects().seed(bluezObjects);
+		application.selectAdapters();
+		interfacesAddedHandler = application.getInterfacesAddedSignalHandler();
+		interfacesRemovedHandler = application.getInterfacesRemovedSignalHandler();
+		propertiesChangedHandler = application.getPropertiesChangedSignalHandler();
+
+		// the signals of dbus-java take raw Variant maps
+		@SuppressWarnings("rawtypes")
+		Map<String, Variant> deviceProperties = new HashMap<String, Variant>();
+		deviceProperties.put("Address", new Variant<String>(DEVICE_ADDRESS));
+		deviceProperties.put("Connected", new Variant<Boolean>(true));
+		@SuppressWarnings("rawtypes")
+		Map<String, Map<String, Variant>> interfaces = new HashMap<String, Map<String, Variant>>();
+		interfaces.put(BleApplication.BLUEZ_DEVICE_INTERFACE, deviceProperties);
+		deviceAdded = new InterfacesAdded("/", new Path(DEVICE_PATH), interfaces);
+		deviceRemoved = new InterfacesRemoved("/", new Path(DEVICE_PATH), Collections.singletonList(BleApplication.BLUEZ_DEVICE_INTERFACE));
+
+		connectionChanges = new PropertiesChanged[2];
+		for (int i = 0; i < connectionChanges.length; i++) {
+			@SuppressWarnings("rawtypes")
+			Map<String, Variant> changed = new HashMap<String, Variant>();
+			changed.put("Connected", new Variant<Boolean>(i == 0));
+			connectionChanges[i] = new PropertiesChanged(DEVICE_PATH, BleApplication.BLUEZ_DEVICE_INTERFACE, changed, new ArrayList<String>());
+		}
+	}
+
+	@Benchmark
+	public void deviceAdded() {
+		interfacesAddedHandler.handle(deviceAdded);
+	}
+
+	@Benchmark
+	public void deviceRemoved() {
+		interfacesRemovedHandler.handle(deviceRemoved);
+	}
+
+	/**
+	 * The device connects and disconnects alternately.
+	 */
+	@Benchmark
+	public void connectionChanged() {
+		propertiesChangedHandler.handle(connectionChanges[connectionChangeIndex]);
+		connectionChangeIndex = 1 - connectionChangeIndex;
+	}
+
+}
@@ -0,0 +1,105 @@
+package it.tangodev.ble;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.file.Files;
+
+/**
+ * SystemBus is the dbus-daemon of the system started with its own configuration, listening on a unix socket
+ * and on a TCP port of localhost: dbus-java can only use TCP, its unix socket needs a native library,
+ * dbus-java 4 uses the unix socket. All reach the same daemon, so the backends are compared on the same bus.
+ */
+public class SystemBus {
+
+	public static final String DBUS_DAEMON = "/usr/bin/dbus-daemon";
+
+	private final Process process;
+	private final File directory;
+	private final String unixAddress;
+	private final String tcpAddress;
+
+	private SystemBus(Process process, File directory, String unixAddress, String tcpAddress) {
+		this.process = process;
+		this.directory = directory;
+		this.unixAddress = unixAddress;
+		this.tcpAddress = tcpAddress;
+	}
+
+	/**
+	 * Start a daemon and wait for its addresses.
+	 * @return
+	 * @throws IOException
+	 */
+	public static SystemBus start() throws IOException {
+		File directory = Files.createTempDirectory("ble-bus").toFile();
+		File socket = new File(directory, "bus.sock");
+		File config = new File(directory, "bus.conf");
+		Writer writer = new FileWriter(config);
+		try {
+			writer.write("<!DOCTYPE busconfig PUBLIC \"-//freedesktop//DTD D-Bus Bus Configuration 1.0//EN\"\n"
+					+ " \"http://www.freedesktop.org/standards/dbus/1.0/busconfig.dtd\">\n"
+					+ "<busconfig>\n"
+					+ "  <type>custom</type>\n"
+					+ "  <listen>unix:path=" + socket.getAbsolutePath() + "</listen>\n"
+					+ "  <listen>tcp:host=localhost,port=0</listen>\n"
+					+ "  <auth>EXTERNAL</auth>\n"
+					+ "  <auth>DBUS_COOKIE_SHA1</auth>\n"
+					+ "  <policy context=\"default\">\n"
+					+ "    <allow send_destination=\"*\" eavesdrop=\"true\"/>\n"
+					+ "    <allow eavesdrop=\"true\"/>\n"
+					+ "    <allow own=\"*\"/>\n"
+					+ "  </policy>\n"
+					+ "</busconfig>\n");
+		} finally {
+			writer.close();
+		}
+		Process process = new ProcessBuilder(DBUS_DAEMON, "--config-file=" + config.getAbsolutePath(), "--nofork", "--print-address").start();
+		BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "US-ASCII"));
+		String addresses = output.readLine();
+		if(addresses == null) {
+			process.destroy();
+			throw new IOException("dbus-daemon not started [config=" + config + "]");
+		}
+		String unixAddress = null;
+		String tcpAddress = null;
+		for (String address : addresses.trim().split(";")) {
+			if(address.startsWith("unix:")) {
+				unixAddress = address;
+			} else if(address.startsWith("tcp:")) {
+				tcpAddress = address;
+			}
+		}
+		return new SystemBus(process, directory, unixAddress, tcpAddress);
+	}
+
+	public String getUnixAddress() {
+		return unixAddress;
+	}
+
+	public String getTcpAddress() {
+		return tcpAddress;
+	}
+
+	/**
+	 * dbus-java shares one connection per address string, this address reach the same daemon
+	 * without sharing the connections opened on getTcpAddress().
+	 * @return
+	 */
+	public String getPeerTcpAddress() {
+		return tcpAddress.replace("host=localhost", "host=127.0.0.1");
+	}
+
+	public void stop() throws InterruptedException {
+		process.destroy();
+		process.waitFor();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+}
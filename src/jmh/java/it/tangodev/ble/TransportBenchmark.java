@@ -0,0 +1,124 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A notification and a ReadValue on the dbus-java transport, through a LocalBus, and on the loopback transport,
+ * where the signal reaches a handler and the read is a plain call.
+ * The numbers of the loopback are the cost of the library alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransportBenchmark {
+
+	private LocalBus bus;
+	private DBusConnection serverConnection;
+	private DBusConnection clientConnection;
+	private BleTransport dbusTransport;
+	private BleLoopbackTransport loopback;
+	private BleService dbusService;
+	private BleService loopbackService;
+	private BleCharacteristic dbusCharacteristic;
+	private BleCharacteristic loopbackCharacteristic;
+	private GattCharacteristic1 dbusRemote;
+	private GattCharacteristic1 loopbackRemote;
+	// GattCharacteristic1 takes the options as a raw Variant map
+	@SuppressWarnings("rawtypes")
+	private Map<String, Variant> options = new HashMap<String, Variant>();
+	private byte[] value = new byte[20];
+
+	@Setup
+	public void setup() throws Exception {
+		bus = LocalBus.start();
+		serverConnection = bus.connect();
+		dbusTransport = new BleDBusTransport(serverConnection);
+		loopback = new BleLoopbackTransport();
+		loopback.addSigHandler(DBusSignal.class, new DBusSigHandler<DBusSignal>() {
+			@Override
+			public void handle(DBusSignal signal) {
+				Blackhole.consumeCPU(1);
+			}
+		});
+
+		dbusService = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		dbusCharacteristic = createCharacteristic(dbusService);
+		dbusService.export(dbusTransport);
+		loopbackService = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		loopbackCharacteristic = createCharacteristic(loopbackService);
+		loopbackService.export(loopback);
+
+		clientConnection = DBusConnection.getConnection(bus.getPeerAddress());
+		dbusRemote = clientConnection.getRemoteObject(serverConnection.getUniqueName(), "/bench/s/c", GattCharacteristic1.class);
+		loopbackRemote = loopback.getExportedObject("/bench/s/c", GattCharacteristic1.class);
+		dbusCharacteristic.StartNotify();
+		loopbackCharacteristic.StartNotify();
+	}
+
+	private BleCharacteristic createCharacteristic(BleService service) {
+		BleCharacteristic characteristic = new BleCharacteristic("/bench/s/c", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY),
+				"13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] newValue) {
+				value = newValue;
+			}
+
+			@Override
+			public byte[] getValue() {
+				return value;
+			}
+		});
+		service.addCharacteristic(characteristic);
+		return characteristic;
+	}
+
+	@TearDown
+	public void tearDown() throws DBusException {
+		dbusService.unexport(dbusTransport);
+		loopbackService.unexport(loopback);
+		clientConnection.disconnect();
+		serverConnection.disconnect();
+	}
+
+	@Benchmark
+	public void dbusNotification() {
+		dbusCharacteristic.sendNotification();
+	}
+
+	@Benchmark
+	public void loopbackNotification() {
+		loopbackCharacteristic.sendNotification();
+	}
+
+	@Benchmark
+	public byte[] dbusRead() {
+		return dbusRemote.ReadValue(options);
+	}
+
+	@Benchmark
+	public byte[] loopbackRead() {
+		return loopbackRemote.ReadValue(options);
+	}
+
+}
@@ -0,0 +1,79 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.BleCharacteristic.WriteOverflowPolicy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The time a write-without-response keeps the D-Bus dispatch thread busy, when the listener handles
+ * every packet on that thread and when the packet is queued for the batch listener.
+ * The listener costs about 1 microsecond for every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteWithoutResponseBenchmark {
+
+	private static final long LISTENER_TOKENS = 1000;
+
+	private BleCharacteristic direct;
+	private BleCharacteristic queued;
+	// GattCharacteristic1 takes the options as a raw Variant map
+	@SuppressWarnings("rawtypes")
+	private Map<String, Variant> options = new HashMap<String, Variant>();
+	private byte[] value = new byte[20];
+
+	@Setup
+	public void setup() {
+		BleService service = new BleService("/bench/s", "13333333-3333-3333-3333-333333333001", true);
+		List<CharacteristicFlag> flags = Arrays.asList(CharacteristicFlag.WRITE_WITHOUT_RESPONSE);
+		direct = new BleCharacteristic("/bench/s/c0", service, flags, "13333333-3333-3333-3333-333333333002", new BleCharacteristicListener() {
+			@Override
+			public void setValue(byte[] value) {
+				Blackhole.consumeCPU(LISTENER_TOKENS);
+			}
+
+			@Override
+			public byte[] getValue() {
+				return null;
+			}
+		});
+		queued = new BleCharacteristic("/bench/s/c1", service, flags, "13333333-3333-3333-3333-333333333003", null);
+		queued.setWriteQueue(4096, WriteOverflowPolicy.DROP_OLDEST);
+		queued.setBatchWriteListener(new BleBatchWriteListener() {
+			@Override
+			public void valuesWritten(BleCharacteristic characteristic, String device, List<byte[]> values) {
+				Blackhole.consumeCPU(LISTENER_TOKENS);
+			}
+		});
+		options.put("device", new Variant<Path>(new Path("/org/bluez/hci0/dev_00_00_00_00_00_01")));
+		options.put("type", new Variant<String>("command"));
+	}
+
+	@Benchmark
+	public void listenerOnDispatchThread() {
+		direct.WriteValue(value, options);
+	}
+
+	@Benchmark
+	public void queuedForBatchListener() {
+		queued.WriteValue(value, options);
+	}
+
+}
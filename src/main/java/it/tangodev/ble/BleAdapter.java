@@ -0,0 +1,135 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * BleAdapter represent one local adapter (org.bluez.Adapter1) where the application is registered.
+ * The advertisements are registered on every adapter that is below its connection limit, up to the
+ * advertising instances that the adapter supports.
+ */
+public class BleAdapter {
+
+	private final String path;
+	private final List<BleAdvertisement> advertisements = new CopyOnWriteArrayList<BleAdvertisement>();
+	private volatile int supportedInstances = 1;
+	// first advertisement of the current time slice, guarded by this
+	private int rotation = 0;
+
+	BleAdapter(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * The bluez object path, for example /org/bluez/hci0
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * The adapter name, for example hci0
+	 * @return
+	 */
+	public String getName() {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @return true if at least one advertisement is registered on this adapter
+	 */
+	public boolean isAdvertising() {
+		return !advertisements.isEmpty();
+	}
+
+	/**
+	 * The advertisements registered on this adapter now.
+	 * @return
+	 */
+	public List<BleAdvertisement> getAdvertisements() {
+		return Collections.unmodifiableList(new ArrayList<BleAdvertisement>(advertisements));
+	}
+
+	/**
+	 * How many advertisements the application can register on this adapter, read from the SupportedInstances
+	 * of LEAdvertisingManager1 when the application is registered.
+	 * @return
+	 */
+	public int getSupportedInstances() {
+		return supportedInstances;
+	}
+
+	void setSupportedInstances(int supportedInstances) {
+		this.supportedInstances = Math.max(1, supportedInstances);
+	}
+
+	boolean isRegistered(BleAdvertisement advertisement) {
+		return advertisements.contains(advertisement);
+	}
+
+	void advertisementRegistered(BleAdvertisement advertisement) {
+		advertisements.add(advertisement);
+	}
+
+	void advertisementUnregistered(BleAdvertisement advertisement) {
+		advertisements.remove(advertisement);
+	}
+
+	/**
+	 * Forget the registered advertisements, for example because bluetoothd exited.
+	 */
+	void clearAdvertisements() {
+		advertisements.clear();
+	}
+
+	/**
+	 * Choose the advertisements of the current time slice: as many as the supported instances,
+	 * starting from the rotation index.
+	 * @param candidates
+	 * @return
+	 */
+	synchronized List<BleAdvertisement> selectAdvertisements(List<BleAdvertisement> candidates) {
+		int size = candidates.size();
+		int slots = Math.min(supportedInstances, size);
+		List<BleAdvertisement> selected = new ArrayList<BleAdvertisement>(slots);
+		if(size == 0) {
+			return selected;
+		}
+		rotation = rotation % size;
+		for (int i = 0; i < slots; i++) {
+			selected.add(candidates.get((rotation + i) % size));
+		}
+		return selected;
+	}
+
+	/**
+	 * Move to the next time slice.
+	 * @param candidates how many advertisements share the adapter
+	 * @return false if all the advertisements fit in the adapter and there is nothing to rotate
+	 */
+	synchronized boolean rotate(int candidates) {
+		if(candidates <= supportedInstances) {
+			rotation = 0;
+			return false;
+		}
+		rotation = (rotation + supportedInstances) % candidates;
+		return true;
+	}
+
+	/**
+	 * @param id: adapter name (hci0) or bluez object path (/org/bluez/hci0)
+	 * @return
+	 */
+	boolean matches(String id) {
+		return path.equals(id) || getName().equals(id);
+	}
+
+	@Override
+	public String toString() {
+		return "BleAdapter [path=" + path + ", advertisements=" + advertisements.size() + "/" + supportedInstances + "]";
+	}
+
+}
@@ -3,14 +3,17 @@ package it.tangodev.ble;
 import it.tangodev.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.bluez.LEAdvertisement1;
 import org.freedesktop.DBus.Properties;
-import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 
@@ -18,22 +21,48 @@ public class BleAdvertisement implements LEAdvertisement1, Properties {
 
 	public static final String ADVERTISEMENT_TYPE_BROADCAST = "broadcast";
 	public static final String ADVERTISEMENT_TYPE_PERIPHERAL = "peripheral";
+	public static final int LEGACY_MAX_DATA_LENGTH = 31;
+	public static final int EXTENDED_MAX_DATA_LENGTH = 251;
 	
 	private static final String LEADVERTISEMENT_INTERFACE = "org.bluez.LEAdvertisement1";
+	private static final String PROPERTIES_INTERFACE = "org.freedesktop.DBus.Properties";
+	private static final String PROPERTIES_CHANGED_SIGNAL = "PropertiesChanged";
+	private static final String PROPERTIES_CHANGED_SIGNATURE = "sa{sv}as";
+	private static final String MANUFACTURER_DATA_SIGNATURE = "a{qv}";
+	private static final String SERVICE_DATA_SIGNATURE = "a{sv}";
+	private static final String BLUETOOTH_BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+	// length and type of an AD structure
+	private static final int AD_HEADER_LENGTH = 2;
+	private static final int FLAGS_LENGTH = AD_HEADER_LENGTH + 1;
+	private static final int TX_POWER_LENGTH = AD_HEADER_LENGTH + 1;
+	private static final int COMPANY_ID_LENGTH = 2;
 	private static final String ADVERTISEMENT_TYPE_PROPERTY_KEY = "Type";
 	private static final String ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY = "ServiceUUIDs";
 	private static final String ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY = "SolicitUUIDs";
 	private static final String ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY = "ManufacturerData";
 	private static final String ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY = "ServiceData";
 	private static final String ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY = "IncludeTxPower";
+	private static final String[] PROPERTY_KEYS = { ADVERTISEMENT_TYPE_PROPERTY_KEY, ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY,
+			ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY, ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY, ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY,
+			ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY };
 
 	private String type;
 	private List<String> servicesUUIDs;
-	private Map<Integer, Integer> manufacturerData;
+	private Map<Integer, byte[]> manufacturerData = new TreeMap<Integer, byte[]>();
 	private List<String> solicitUUIDs;
-	private Map<String, Integer> serviceData;
+	private Map<String, byte[]> serviceData = new TreeMap<String, byte[]>();
 	private boolean includeTxPower = true;
+	private int maxDataLength = LEGACY_MAX_DATA_LENGTH;
+	// encoded when the data changes, so the properties don't box the payload again
+	private Variant<?> manufacturerDataVariant = null;
+	private Variant<?> serviceDataVariant = null;
 	private String path;
+	// built on demand and dropped when a property changes
+	@SuppressWarnings("rawtypes")
+	private volatile Map<String, Map<String, Variant>> properties = null;
+	private Path cachedPath = null;
+	private volatile BleTransport transport = null;
+	private volatile BleApplication application = null;
 	
 	/**
 	 * 
@@ -47,40 +76,274 @@ public class BleAdvertisement implements LEAdvertisement1, Properties {
 		this.solicitUUIDs = new ArrayList<>();
 	}
 
-	public void addService(BleService service) {
+	/**
+	 * @param service
+	 * @throws IllegalArgumentException if the advertising data doesn't fit in the maximum length
+	 */
+	public synchronized void addService(BleService service) {
 		this.servicesUUIDs.add(service.getUuid());
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.servicesUUIDs.remove(this.servicesUUIDs.size() - 1);
+			throw tooLong("service " + service.getUuid(), length);
+		}
+		propertyChanged(ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY);
 	}
 
-	public void addSolicited(BleService service) {
+	/**
+	 * @param service
+	 * @throws IllegalArgumentException if the advertising data doesn't fit in the maximum length
+	 */
+	public synchronized void addSolicited(BleService service) {
 		this.solicitUUIDs.add(service.getUuid());
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.solicitUUIDs.remove(this.solicitUUIDs.size() - 1);
+			throw tooLong("solicited service " + service.getUuid(), length);
+		}
+		propertyChanged(ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY);
 	}
 
-	public void setType(String type) {
+	public synchronized void setType(String type) {
+		String previous = this.type;
 		this.type = type;
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.type = previous;
+			throw tooLong("type " + type, length);
+		}
+		propertyChanged(ADVERTISEMENT_TYPE_PROPERTY_KEY);
 	}
 
-	public void setManufacturerData(Map<Integer, Integer> manufacturerData) {
-		this.manufacturerData = manufacturerData;
+	/**
+	 * Set the manufacturer specific data of a company, null removes it. While the advertisement is exported bluez
+	 * is informed with PropertiesChanged and updates the advertising data without unregistering the advertisement
+	 * (bluez 5.50 or newer).
+	 * @param companyId: the Bluetooth SIG company identifier, from 0 to 65535
+	 * @param data
+	 * @throws IllegalArgumentException if the advertising data doesn't fit in the maximum length
+	 */
+	public synchronized void setManufacturerData(int companyId, byte[] data) {
+		if(companyId < UInt16.MIN_VALUE || companyId > UInt16.MAX_VALUE) {
+			throw new IllegalArgumentException("Wrong company identifier [company_id=" + companyId + "]");
+		}
+		byte[] previous = (data != null) ? manufacturerData.put(companyId, data.clone()) : manufacturerData.remove(companyId);
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			if(previous != null) {
+				manufacturerData.put(companyId, previous);
+			} else {
+				manufacturerData.remove(companyId);
+			}
+			throw tooLong("manufacturer data of " + companyId, length);
+		}
+		manufacturerDataVariant = encodeManufacturerData();
+		propertyChanged(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY);
 	}
 
-	public void setServiceData(Map<String, Integer> serviceData) {
-		this.serviceData = serviceData;
+	/**
+	 * Set the service data of a service, null removes it. While the advertisement is exported bluez is informed
+	 * with PropertiesChanged.
+	 * @param uuid: the service UUID, 16, 32 or 128 bit
+	 * @param data
+	 * @throws IllegalArgumentException if the advertising data doesn't fit in the maximum length
+	 */
+	public synchronized void setServiceData(String uuid, byte[] data) {
+		byte[] previous = (data != null) ? serviceData.put(uuid, data.clone()) : serviceData.remove(uuid);
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			if(previous != null) {
+				serviceData.put(uuid, previous);
+			} else {
+				serviceData.remove(uuid);
+			}
+			throw tooLong("service data of " + uuid, length);
+		}
+		serviceDataVariant = encodeServiceData();
+		propertyChanged(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY);
+	}
+
+	/**
+	 * Replace the manufacturer data, every value is sent as one byte.
+	 * @param manufacturerData
+	 * @deprecated bluez expects a byte array for every company, use {@link #setManufacturerData(int, byte[])}
+	 */
+	@Deprecated
+	public synchronized void setManufacturerData(Map<Integer, Integer> manufacturerData) {
+		Map<Integer, byte[]> previous = this.manufacturerData;
+		this.manufacturerData = new TreeMap<Integer, byte[]>();
+		if(manufacturerData != null) {
+			for (Map.Entry<Integer, Integer> entry : manufacturerData.entrySet()) {
+				this.manufacturerData.put(entry.getKey(), new byte[] { entry.getValue().byteValue() });
+			}
+		}
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.manufacturerData = previous;
+			throw tooLong("manufacturer data", length);
+		}
+		manufacturerDataVariant = encodeManufacturerData();
+		propertyChanged(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY);
+	}
+
+	/**
+	 * Replace the service data, every value is sent as one byte.
+	 * @param serviceData
+	 * @deprecated bluez expects a byte array for every service, use {@link #setServiceData(String, byte[])}
+	 */
+	@Deprecated
+	public synchronized void setServiceData(Map<String, Integer> serviceData) {
+		Map<String, byte[]> previous = this.serviceData;
+		this.serviceData = new TreeMap<String, byte[]>();
+		if(serviceData != null) {
+			for (Map.Entry<String, Integer> entry : serviceData.entrySet()) {
+				this.serviceData.put(entry.getKey(), new byte[] { entry.getValue().byteValue() });
+			}
+		}
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.serviceData = previous;
+			throw tooLong("service data", length);
+		}
+		serviceDataVariant = encodeServiceData();
+		propertyChanged(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY);
 	}
 
-	public void setIncludeTxPower(boolean includeTxPower) {
+	public synchronized void setIncludeTxPower(boolean includeTxPower) {
+		boolean previous = this.includeTxPower;
 		this.includeTxPower = includeTxPower;
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			this.includeTxPower = previous;
+			throw tooLong("TX power", length);
+		}
+		propertyChanged(ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY);
+	}
+
+	/**
+	 * Set the maximum length of the advertising data checked by the setters: LEGACY_MAX_DATA_LENGTH (the default)
+	 * for every controller, EXTENDED_MAX_DATA_LENGTH for the controllers with extended advertising (Bluetooth 5).
+	 * @param maxDataLength
+	 * @throws IllegalArgumentException if the current data is already longer
+	 */
+	public synchronized void setMaxDataLength(int maxDataLength) {
+		if(maxDataLength < LEGACY_MAX_DATA_LENGTH || maxDataLength > EXTENDED_MAX_DATA_LENGTH) {
+			throw new IllegalArgumentException("Wrong maximum length [max_data_length=" + maxDataLength + "]");
+		}
+		int length = getDataLength();
+		if(length > maxDataLength) {
+			throw tooLong("maximum length " + maxDataLength, length);
+		}
+		this.maxDataLength = maxDataLength;
+	}
+
+	public synchronized int getMaxDataLength() {
+		return maxDataLength;
+	}
+
+	/**
+	 * The length of the advertising data built by bluez: flags, service UUIDs grouped by size,
+	 * solicited UUIDs, manufacturer data, service data and TX power.
+	 * The local name and the appearance are not included, they are not set by this class.
+	 * @return bytes
+	 */
+	public synchronized int getDataLength() {
+		int length = 0;
+		if(ADVERTISEMENT_TYPE_PERIPHERAL.equals(type)) {
+			length += FLAGS_LENGTH;
+		}
+		length += getUuidListLength(servicesUUIDs);
+		length += getUuidListLength(solicitUUIDs);
+		for (byte[] data : manufacturerData.values()) {
+			length += AD_HEADER_LENGTH + COMPANY_ID_LENGTH + data.length;
+		}
+		for (Map.Entry<String, byte[]> entry : serviceData.entrySet()) {
+			length += AD_HEADER_LENGTH + getUuidLength(entry.getKey()) + entry.getValue().length;
+		}
+		if(includeTxPower) {
+			length += TX_POWER_LENGTH;
+		}
+		return length;
+	}
+
+	private IllegalArgumentException tooLong(String what, int length) {
+		return new IllegalArgumentException("The advertising data is too long [" + what + ", length=" + length
+				+ ", max_data_length=" + maxDataLength + "]");
+	}
+
+	/**
+	 * The UUIDs of the same size go in one AD structure.
+	 */
+	private static int getUuidListLength(List<String> uuids) {
+		int[] bytes = new int[17];
+		for (String uuid : uuids) {
+			int size = getUuidLength(uuid);
+			bytes[size] += size;
+		}
+		int length = 0;
+		for (int size : new int[] { 2, 4, 16 }) {
+			if(bytes[size] > 0) {
+				length += AD_HEADER_LENGTH + bytes[size];
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @return 2, 4 or 16: the bytes of the UUID in the advertising data, bluez shortens the UUIDs of the Bluetooth base
+	 */
+	static int getUuidLength(String uuid) {
+		String lower = uuid.toLowerCase();
+		if(lower.length() <= 4) {
+			return 2;
+		}
+		if(lower.length() <= 8) {
+			return 4;
+		}
+		if(lower.length() == 36 && lower.endsWith(BLUETOOTH_BASE_UUID_SUFFIX)) {
+			return lower.startsWith("0000") ? 2 : 4;
+		}
+		return 16;
+	}
+
+	private Variant<?> encodeManufacturerData() {
+		if(manufacturerData.isEmpty()) {
+			return null;
+		}
+		Map<UInt16, Variant<byte[]>> encoded = new HashMap<UInt16, Variant<byte[]>>();
+		for (Map.Entry<Integer, byte[]> entry : manufacturerData.entrySet()) {
+			encoded.put(new UInt16(entry.getKey()), new Variant<byte[]>(entry.getValue()));
+		}
+		return new Variant<Map<UInt16, Variant<byte[]>>>(Collections.unmodifiableMap(encoded), MANUFACTURER_DATA_SIGNATURE);
+	}
+
+	private Variant<?> encodeServiceData() {
+		if(serviceData.isEmpty()) {
+			return null;
+		}
+		Map<String, Variant<byte[]>> encoded = new HashMap<String, Variant<byte[]>>();
+		for (Map.Entry<String, byte[]> entry : serviceData.entrySet()) {
+			encoded.put(entry.getKey(), new Variant<byte[]>(entry.getValue()));
+		}
+		return new Variant<Map<String, Variant<byte[]>>>(Collections.unmodifiableMap(encoded), SERVICE_DATA_SIGNATURE);
 	}
 
 	public boolean hasServices() {
 		return servicesUUIDs != null && !servicesUUIDs.isEmpty();
 	}
 
-	protected void export(DBusConnection dbusConnection) throws DBusException {
-		dbusConnection.exportObject(this.getPath().toString(), this);
+	protected void export(BleTransport transport) throws DBusException {
+		transport.exportObject(this.getPath().toString(), this);
+		this.transport = transport;
 	}
 
-	protected void unexport(DBusConnection dBusConnection) throws DBusException {
-		dBusConnection.unExportObject(this.getPath().toString());
+	protected void unexport(BleTransport transport) throws DBusException {
+		this.transport = null;
+		transport.unexportObject(this.getPath().toString());
+	}
+	
+	void setApplication(BleApplication application) {
+		this.application = application;
 	}
 	
 	/**
@@ -88,39 +351,139 @@ public class BleAdvertisement implements LEAdvertisement1, Properties {
 	 * @return
 	 */
 	public Path getPath() {
-		return new Path(path);
+		if(cachedPath == null) {
+			cachedPath = new Path(path);
+		}
+		return cachedPath;
 	}
 	
+	/**
+	 * Return the properties of the advertisement. The map is built once and cached until
+	 * a property changes, so it must not be modified.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
 	public Map<String, Map<String, Variant>> getProperties() {
-		Map<String, Variant> advertisementMap = new HashMap<String, Variant>();
-		
-		Variant<String> Type = new Variant<String>(this.type);
-		advertisementMap.put(ADVERTISEMENT_TYPE_PROPERTY_KEY, Type);
-
-		if(servicesUUIDs != null && !servicesUUIDs.isEmpty()) {
-			Variant<String[]> serviceUUIDs = new Variant<String[]>(Utils.getStringArrayFromList(this.servicesUUIDs));
-			advertisementMap.put(ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY, serviceUUIDs);
+		Map<String, Map<String, Variant>> properties = this.properties;
+		if(properties == null) {
+			synchronized (this) {
+				if(this.properties == null) {
+					this.properties = buildProperties();
+				}
+				properties = this.properties;
+			}
+		}
+		return properties;
+	}
+	
+	/**
+	 * Drop the cached properties: while the advertisement is exported all its properties are sent to bluez
+	 * with PropertiesChanged. The setters copy their data, so there is no need to call it after them.
+	 */
+	public synchronized void invalidateProperties() {
+		this.properties = null;
+		BleTransport transport = this.transport;
+		if(transport != null) {
+			sendPropertiesChanged(transport, getProperties().get(LEADVERTISEMENT_INTERFACE), Collections.<String>emptyList());
 		}
-		if(solicitUUIDs != null && !solicitUUIDs.isEmpty()) {
-			Variant<String[]> solicitUUIDs = new Variant<String[]>(Utils.getStringArrayFromList(this.solicitUUIDs));
-			advertisementMap.put(ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY, solicitUUIDs);
+	}
+	
+	/**
+	 * Replace one property in the cached properties, the others keep their Variant, and inform bluez.
+	 * The caller holds the lock of the advertisement.
+	 * @param key
+	 */
+	private void propertyChanged(String key) {
+		Variant<?> value = buildVariant(key);
+		@SuppressWarnings("rawtypes")
+		Map<String, Map<String, Variant>> properties = this.properties;
+		if(properties != null) {
+			@SuppressWarnings("rawtypes")
+			Map<String, Variant> advertisementMap = new HashMap<String, Variant>(properties.get(LEADVERTISEMENT_INTERFACE));
+			if(value != null) {
+				advertisementMap.put(key, value);
+			} else {
+				advertisementMap.remove(key);
+			}
+			this.properties = Collections.singletonMap(LEADVERTISEMENT_INTERFACE, Collections.unmodifiableMap(advertisementMap));
 		}
-		if(manufacturerData != null) {
-			Variant<Map<Integer, Integer>> manufacturerData = new Variant<Map<Integer, Integer>>(this.manufacturerData);
-			advertisementMap.put(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY, manufacturerData);
+		BleTransport transport = this.transport;
+		if(transport == null) {
+			return;
 		}
-		if(serviceData != null) {
-			Variant<Map<String, Integer>> serviceData = new Variant<Map<String, Integer>>(this.serviceData);
-			advertisementMap.put(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY, serviceData);
+		if(value != null) {
+			sendPropertiesChanged(transport, Collections.<String, Variant<?>>singletonMap(key, value), Collections.<String>emptyList());
+		} else {
+			// dbus-java can't send an empty a{sv}, the unchanged Type goes with the removed property
+			sendPropertiesChanged(transport, Collections.<String, Variant<?>>singletonMap(ADVERTISEMENT_TYPE_PROPERTY_KEY, buildVariant(ADVERTISEMENT_TYPE_PROPERTY_KEY)),
+					Collections.singletonList(key));
+		}
+	}
+	
+	/**
+	 * The signature is given, so dbus-java doesn't look for it by reflection.
+	 * The value is already changed when the signal fails, so the failure is counted in the metrics of the application
+	 * and logged instead of being thrown to the setter.
+	 */
+	private void sendPropertiesChanged(BleTransport transport, Map<String, ?> changed, List<String> invalidated) {
+		try {
+			transport.sendSignal(new DBusSignal(null, path, PROPERTIES_INTERFACE, PROPERTIES_CHANGED_SIGNAL, PROPERTIES_CHANGED_SIGNATURE,
+					LEADVERTISEMENT_INTERFACE, changed, invalidated));
+		} catch(Exception e) {
+			BleApplication application = this.application;
+			BleMetrics metrics = (application != null) ? application.getMetrics() : BleMetrics.NONE;
+			metrics.counter(BleMetricsRegistry.ADVERTISEMENT_ERRORS, BleMetricsRegistry.ADVERTISEMENT_LABEL, path).increment();
+			BleLog.warning("Cannot send the changed properties of the advertisement [path=" + path + ", changed=" + changed.keySet()
+					+ ", invalidated=" + invalidated + "]", e);
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private Map<String, Map<String, Variant>> buildProperties() {
+		Map<String, Variant> advertisementMap = new HashMap<String, Variant>();
+		for (String key : PROPERTY_KEYS) {
+			Variant<?> value = buildVariant(key);
+			if(value != null) {
+				advertisementMap.put(key, value);
+			}
 		}
-		
-		Variant<Boolean> includeTxPower = new Variant<Boolean>(this.includeTxPower);
-		advertisementMap.put(ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY, includeTxPower);
 		
 		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-		externalMap.put(LEADVERTISEMENT_INTERFACE, advertisementMap);
+		externalMap.put(LEADVERTISEMENT_INTERFACE, Collections.unmodifiableMap(advertisementMap));
 		
-		return externalMap;
+		return Collections.unmodifiableMap(externalMap);
+	}
+	
+	/**
+	 * @param key
+	 * @return the value of one property, null if it is not set
+	 */
+	private Variant<?> buildVariant(String key) {
+		if(ADVERTISEMENT_TYPE_PROPERTY_KEY.equals(key)) {
+			return new Variant<String>(this.type);
+		}
+		if(ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY.equals(key)) {
+			if(servicesUUIDs == null || servicesUUIDs.isEmpty()) {
+				return null;
+			}
+			return new Variant<String[]>(Utils.getStringArrayFromList(this.servicesUUIDs));
+		}
+		if(ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY.equals(key)) {
+			if(solicitUUIDs == null || solicitUUIDs.isEmpty()) {
+				return null;
+			}
+			return new Variant<String[]>(Utils.getStringArrayFromList(this.solicitUUIDs));
+		}
+		if(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY.equals(key)) {
+			return manufacturerDataVariant;
+		}
+		if(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY.equals(key)) {
+			return serviceDataVariant;
+		}
+		if(ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY.equals(key)) {
+			return new Variant<Boolean>(this.includeTxPower);
+		}
+		throw new IllegalArgumentException("Unknown property [key=" + key + "]");
 	}
 	
 	@Override
@@ -1,17 +1,24 @@
 package it.tangodev.ble;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.bluez.GattApplication1;
 import org.bluez.GattManager1;
 import org.bluez.LEAdvertisingManager1;
 import org.dbus.ObjectManager;
-import org.dbus.InterfacesAddedSignal.InterfacesAdded;
-import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
+import org.dbus.ObjectManager.InterfacesAdded;
+import org.dbus.ObjectManager.InterfacesRemoved;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
 import org.freedesktop.DBus;
 import org.freedesktop.DBus.Properties;
 import org.freedesktop.dbus.*;
@@ -31,19 +38,63 @@ public class BleApplication implements GattApplication1 {
     public static final String BLUEZ_ADAPTER_INTERFACE = "org.bluez.Adapter1";
     public static final String BLUEZ_GATT_INTERFACE = "org.bluez.GattManager1";
     public static final String BLUEZ_LE_ADV_INTERFACE = "org.bluez.LEAdvertisingManager1";
+    public static final long DEFAULT_HANDLER_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_ADVERTISEMENT_ROTATION_MILLIS = 1000;
+    private static final String DEVICE_ADDRESS_PROPERTY_KEY = "Address";
+    private static final String DEVICE_CONNECTED_PROPERTY_KEY = "Connected";
+    private static final String ADV_SUPPORTED_INSTANCES_PROPERTY_KEY = "SupportedInstances";
 
-    private List<BleService> servicesList = new ArrayList<BleService>();
+    /**
+     * The D-Bus binding used to reach the bus when no transport is given with setTransport.
+     */
+    public enum TransportBackend {
+        // a dbus-java connection, BleDBusTransport
+        DBUS_JAVA,
+        // a dbus-java 4 connection on a unix domain socket of the JDK, BleDBus4Transport, Java 16 or better
+        DBUS_JAVA_4
+    }
+
+    private List<BleService> servicesList = new CopyOnWriteArrayList<BleService>();
     private String path;
-    private String adapterPath;
+    private volatile List<BleAdapter> adapters = new CopyOnWriteArrayList<BleAdapter>();
+    private String adapterId;
+    private boolean allAdapters = false;
+    private volatile int maxConnectionsPerAdapter = 0;
     private BleAdvertisement adv;
+    private List<BleAdvertisement> advertisements = new CopyOnWriteArrayList<BleAdvertisement>();
+    private volatile long advertisementRotationMillis = DEFAULT_ADVERTISEMENT_ROTATION_MILLIS;
+    // guarded by this
+    private ScheduledExecutorService advertisementRotation;
     private String adapterAlias;
+    private String busAddress;
+    // given with setTransport, otherwise start opens one with the backend
+    private BleTransport customTransport;
+    private TransportBackend transportBackend = TransportBackend.DBUS_JAVA;
 
-    private AtomicBoolean hasDeviceConnected = new AtomicBoolean(false);
+    private BleDeviceRegistry deviceRegistry = new BleDeviceRegistry();
+    private BleObjectManagerMirror bluezObjects = new BleObjectManagerMirror();
 
+    private volatile String bluezDbusBusName;
     private DBusSigHandler<InterfacesAdded> interfacesAddedSignalHandler;
     private DBusSigHandler<InterfacesRemoved> interfacesRemovedSignalHandler;
+    private DBusSigHandler<PropertiesChanged> propertiesChangedSignalHandler;
+    // the unique names of the bluetoothd the handlers are subscribed to, guarded by itself
+    private final List<String> bluezSignalSources = new ArrayList<String>();
     private BleApplicationListener listener;
-    private DBusConnection dbusConnection;
+    private volatile BleTransport transport;
+    private BleNotificationScheduler notificationScheduler = new BleNotificationScheduler();
+    // built on demand and dropped when a service or a characteristic changes
+    @SuppressWarnings("rawtypes")
+    private volatile Map<Path, Map<String, Map<String, Variant>>> managedObjects;
+    private Executor handlerExecutor;
+    private volatile long handlerTimeoutMillis = DEFAULT_HANDLER_TIMEOUT_MILLIS;
+    private volatile BleMetrics metrics = new BleMetricsRegistry();
+    private int dispatchThreads = 0;
+    // true while the tree is exported, guarded by this
+    private boolean exported = false;
+    private volatile boolean registered = false;
+    private boolean supervised = true;
+    private BleSupervisor supervisor = new BleSupervisor(this);
 
     /**
      * In order to create a BleApplication you need to pass a path.
@@ -53,7 +104,8 @@ public class BleApplication implements GattApplication1 {
      * CHARACTERISTIC-1
      * CHARACTERISTIC-2
      * <p>
-     * Since bluez 5.43, the advertisement is able to run only ONE service.
+     * Since bluez 5.43, the advertisement is able to run only ONE service: add more advertisements
+     * to make the other services discoverable.
      *
      * @param path
      */
@@ -63,52 +115,50 @@ public class BleApplication implements GattApplication1 {
 
         String advPath = path + "/advertisement";
         this.adv = new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_PERIPHERAL, advPath);
+        this.adv.setApplication(this);
+        this.advertisements.add(adv);
+        this.deviceRegistry.setDisconnectListener(new BleDeviceRegistry.DisconnectListener() {
+            @Override
+            public void deviceDisconnected(BleDevice device) {
+                for (BleService service : servicesList) {
+                    for (BleCharacteristic characteristic : service.getCharacteristics()) {
+                        characteristic.deviceDisconnected(device.getPath());
+                    }
+                }
+            }
+        });
     }
 
     /**
      * First of all the method power-on the adapter.
      * Then publish the service with their characteristic and start the advertisement (only primary service can advertise).
+     * While the application is running, the supervisor registers it again every time bluetoothd restarts.
      *
      * @throws DBusException
      */
     public void start() throws DBusException, DBusReferenceLostException {
-        this.dbusConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-        adapterPath = findAdapterPath();
-
-        if (adapterPath == null) {
+        connect();
+        initInterfacesHandler();
+        initAdapters();
+        if (adapters.isEmpty()) {
             throw new RuntimeException("No BLE adapter found");
         }
-        Properties adapterProperties = (Properties) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, Properties.class);
-        adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Powered", new Variant<Boolean>(true));
-
-        if (adapterAlias != null) {
-            adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Alias", new Variant<String>(adapterAlias));
-        }
-
-        GattManager1 gattManager = (GattManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, GattManager1.class);
-        LEAdvertisingManager1 advManager = (LEAdvertisingManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, LEAdvertisingManager1.class);
         if (!adv.hasServices()) {
             updateAdvertisement();
         }
         export();
+        notificationScheduler.start();
 
-        boolean throwDBusEx = false;
-        try {
-            Map<String, Variant> advOptions = new HashMap<String, Variant>();
-            advManager.RegisterAdvertisement(adv, advOptions);
-        } catch (Throwable throwable) {
-            throwDBusEx = true;
+        boolean registered = register();
+        startAdvertisementRotation();
+        if (supervised) {
+            supervisor.start(transport);
+            if (!registered) {
+                supervisor.retryRegistration();
+            }
         }
-        try {
-			Map<String, Variant> appOptions = new HashMap<String, Variant>();
-			gattManager.RegisterApplication(this, appOptions);
-		} catch (Throwable throwable) {
-        	throwDBusEx = true;
-		}
-
-        initInterfacesHandler();
 
-        if (throwDBusEx) {
+        if (!registered) {
             throw new DBusReferenceLostException("Reference to DBUS invalid. Cannot register " +
                     "advertisement or application. " +
                     "Nevertheless, BLE application was started successfully.");
@@ -121,57 +171,441 @@ public class BleApplication implements GattApplication1 {
      * @throws DBusException
      */
     public void stop() throws DBusException, DBusReferenceLostException {
-        if (adapterPath == null) {
+        if (transport == null) {
             return;
         }
-        GattManager1 gattManager = (GattManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, GattManager1.class);
-        LEAdvertisingManager1 advManager = (LEAdvertisingManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, LEAdvertisingManager1.class);
+        supervisor.stop();
+        stopAdvertisementRotation();
+        boolean unregistered = unregister();
 
-        boolean throwDBusEx = false;
-        try {
-            if (adv != null && advManager != null) {
-                advManager.UnregisterAdvertisement(adv);
+        notificationScheduler.stop();
+        unexport();
+        removeInterfacesHandler();
+        bluezObjects.clear();
+        clearDevices();
+        if (transport != customTransport) {
+            transport.disconnect();
+        }
+        transport = null;
+        adapters.clear();
+
+        if (!unregistered) {
+            throw new DBusReferenceLostException("Reference to DBUS invalid. Cannot unregister " +
+                    "advertisement or application. " +
+                    "Nevertheless, BLE application was stopped successfully.");
+        }
+    }
+
+    private void connect() throws DBusException {
+        if (customTransport != null) {
+            this.transport = customTransport;
+            return;
+        }
+        if (transportBackend == TransportBackend.DBUS_JAVA_4) {
+            int threads = (dispatchThreads > 0) ? dispatchThreads : BleDBus4Transport.DEFAULT_DISPATCH_THREADS;
+            this.transport = BleDBus4Transport.connect(busAddress, threads);
+            return;
+        }
+        BleDBusTransport dbusTransport = BleDBusTransport.connect(busAddress);
+        if (dispatchThreads > 0) {
+            dbusTransport.getConnection().changeThreadCount((byte) dispatchThreads);
+        }
+        this.transport = dbusTransport;
+    }
+
+    /**
+     * Find the adapters, then power them on and set their alias.
+     * The bluez objects are fetched only the first time, then they are kept up to date by the signals.
+     *
+     * @throws DBusException
+     */
+    private void initAdapters() throws DBusException {
+        if (!bluezObjects.isSeeded()) {
+            ObjectManager bluezObjectManager = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            bluezObjects.seed(bluezObjectManager.GetManagedObjects());
+        }
+        selectAdapters();
+        for (BleAdapter adapter : adapters) {
+            Properties adapterProperties = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), Properties.class);
+            adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Powered", new Variant<Boolean>(true));
+
+            if (adapterAlias != null) {
+                adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Alias", new Variant<String>(adapterAlias));
             }
-        } catch (Throwable throwable) {
-            throwDBusEx = true;
         }
+    }
 
-        try {
-            if (gattManager != null) {
+    /**
+     * Choose the Adapters that have GattManager1 and LEAdvertisement1 interfaces: the chosen one, all of them
+     * or the first one. The devices of these adapters are added to the device registry.
+     * Everything is read from the mirror of the bluez objects.
+     */
+    void selectAdapters() {
+        List<BleAdapter> selected = new ArrayList<BleAdapter>();
+        for (String adapterPath : bluezObjects.getPaths(BLUEZ_GATT_INTERFACE, BLUEZ_LE_ADV_INTERFACE)) {
+            BleAdapter adapter = new BleAdapter(adapterPath);
+            if (adapterId == null || adapter.matches(adapterId)) {
+                selected.add(adapter);
+            }
+            if (!allAdapters && !selected.isEmpty()) {
+                break;
+            }
+        }
+        adapters = new CopyOnWriteArrayList<BleAdapter>(selected);
+
+        for (BleAdapter adapter : selected) {
+            for (String devicePath : bluezObjects.getChildPaths(adapter.getPath(), BLUEZ_DEVICE_INTERFACE)) {
+                updateDevice(devicePath, bluezObjects.getProperties(devicePath, BLUEZ_DEVICE_INTERFACE));
+            }
+        }
+    }
+
+    /**
+     * Register the application and the advertisements on every adapter.
+     * The advertisements are not registered on the adapters that reached the connection limit.
+     *
+     * @return true if everything is registered
+     * @throws DBusException
+     */
+    private boolean register() throws DBusException {
+        long start = System.nanoTime();
+        boolean registered = registerAdapters();
+        BleMetrics metrics = this.metrics;
+        metrics.timer(BleMetricsRegistry.APPLICATION_REGISTER).record(System.nanoTime() - start);
+        if (!registered) {
+            metrics.counter(BleMetricsRegistry.APPLICATION_REGISTER_FAILURES).increment();
+        }
+        return registered;
+    }
+
+    private boolean registerAdapters() throws DBusException {
+        boolean registered = true;
+        for (BleAdapter adapter : adapters) {
+            synchronized (adapter) {
+                if (!adapter.isAdvertising()) {
+                    adapter.setSupportedInstances(getSupportedInstances(adapter));
+                }
+                registered &= applyAdvertisements(adapter);
+            }
+            try {
+                GattManager1 gattManager = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), GattManager1.class);
+                @SuppressWarnings("rawtypes")
+                Map<String, Variant> appOptions = new HashMap<String, Variant>();
+                gattManager.RegisterApplication(this, appOptions);
+            } catch (Throwable throwable) {
+                registered = false;
+            }
+        }
+        this.registered = registered;
+        return registered;
+    }
+
+    /**
+     * Unregister the advertisements and the application, nothing to do if bluez dropped them.
+     *
+     * @return true if everything is unregistered
+     * @throws DBusException
+     */
+    private boolean unregister() throws DBusException {
+        if (!registered) {
+            return true;
+        }
+        registered = false;
+        boolean unregistered = true;
+        for (BleAdapter adapter : adapters) {
+            synchronized (adapter) {
+                for (BleAdvertisement advertisement : adapter.getAdvertisements()) {
+                    unregistered &= unregisterAdvertisement(adapter, advertisement);
+                }
+            }
+            try {
+                GattManager1 gattManager = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), GattManager1.class);
                 gattManager.UnregisterApplication(this);
+            } catch (Throwable throwable) {
+                unregistered = false;
             }
+        }
+        return unregistered;
+    }
+
+    /**
+     * Register the advertisements of the current time slice on the adapter and unregister the others.
+     * Nothing is advertised on an adapter that reached the connection limit.
+     * The caller holds the lock of the adapter.
+     *
+     * @return true if the advertisements of the time slice are registered
+     */
+    private boolean applyAdvertisements(BleAdapter adapter) {
+        List<BleAdvertisement> selected = isAdapterFull(adapter)
+                ? Collections.<BleAdvertisement>emptyList() : adapter.selectAdvertisements(advertisements);
+        boolean applied = true;
+        // the slots are freed first, bluez refuses the advertisements beyond SupportedInstances
+        for (BleAdvertisement advertisement : adapter.getAdvertisements()) {
+            if (!selected.contains(advertisement)) {
+                unregisterAdvertisement(adapter, advertisement);
+            }
+        }
+        for (BleAdvertisement advertisement : selected) {
+            if (!adapter.isRegistered(advertisement)) {
+                applied &= registerAdvertisement(adapter, advertisement);
+            }
+        }
+        return applied;
+    }
+
+    private boolean registerAdvertisement(BleAdapter adapter, BleAdvertisement advertisement) {
+        try {
+            LEAdvertisingManager1 advManager = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), LEAdvertisingManager1.class);
+            @SuppressWarnings("rawtypes")
+            Map<String, Variant> advOptions = new HashMap<String, Variant>();
+            advManager.RegisterAdvertisement(advertisement, advOptions);
+            adapter.advertisementRegistered(advertisement);
+            return true;
         } catch (Throwable throwable) {
-            throwDBusEx = true;
+            return false;
         }
+    }
 
-        unexport();
-        dbusConnection.removeSigHandler(InterfacesAdded.class, interfacesAddedSignalHandler);
-        dbusConnection.removeSigHandler(InterfacesRemoved.class, interfacesRemovedSignalHandler);
-        dbusConnection.disconnect();
-        dbusConnection = null;
+    private boolean unregisterAdvertisement(BleAdapter adapter, BleAdvertisement advertisement) {
+        adapter.advertisementUnregistered(advertisement);
+        try {
+            LEAdvertisingManager1 advManager = transport.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), LEAdvertisingManager1.class);
+            advManager.UnregisterAdvertisement(advertisement);
+            return true;
+        } catch (Throwable throwable) {
+            return false;
+        }
+    }
 
-        if (throwDBusEx) {
-            throw new DBusReferenceLostException("Reference to DBUS invalid. Cannot unregister " +
-                    "advertisement or application. " +
-                    "Nevertheless, BLE application was stopped successfully.");
+    /**
+     * The advertising instances still available on the adapter, read from the mirror. bluez decreases SupportedInstances
+     * for every registered advertisement, so it is read when the application has none on the adapter.
+     */
+    private int getSupportedInstances(BleAdapter adapter) {
+        Map<String, Variant<?>> properties = bluezObjects.getProperties(adapter.getPath(), BLUEZ_LE_ADV_INTERFACE);
+        Object supportedInstances = (properties != null) ? getPropertyValue(properties, ADV_SUPPORTED_INSTANCES_PROPERTY_KEY) : null;
+        if (supportedInstances instanceof Number) {
+            return ((Number) supportedInstances).intValue();
+        }
+        return 1;
+    }
+
+    /**
+     * Start the time slices when there are more advertisements than an adapter can register at once.
+     */
+    private synchronized void startAdvertisementRotation() {
+        if (advertisementRotation != null || transport == null || advertisements.size() < 2) {
+            return;
         }
+        long millis = advertisementRotationMillis;
+        advertisementRotation = Executors.newSingleThreadScheduledExecutor(BleExecutors.newDaemonThreadFactory("ble-advertisement-rotation"));
+        advertisementRotation.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                rotateAdvertisements();
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
     }
 
+    private void stopAdvertisementRotation() {
+        ScheduledExecutorService advertisementRotation;
+        synchronized (this) {
+            advertisementRotation = this.advertisementRotation;
+            if (advertisementRotation == null) {
+                return;
+            }
+            this.advertisementRotation = null;
+        }
+        advertisementRotation.shutdownNow();
+        try {
+            advertisementRotation.awaitTermination(handlerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run by the rotation thread: every adapter with more advertisements than instances moves to the next time slice.
+     */
+    private void rotateAdvertisements() {
+        if (!registered) {
+            return;
+        }
+        for (BleAdapter adapter : adapters) {
+            synchronized (adapter) {
+                if (adapter.rotate(advertisements.size()) && registered) {
+                    applyAdvertisements(adapter);
+                }
+            }
+        }
+    }
+
+    private boolean isAdapterFull(BleAdapter adapter) {
+        int max = maxConnectionsPerAdapter;
+        return max > 0 && deviceRegistry.getConnectedCount(adapter.getPath()) >= max;
+    }
+
+    /**
+     * Stop advertising on an adapter that reached the connection limit, so the new centrals connect
+     * through the other adapters, and advertise again when a device disconnects.
+     */
+    private void updateAdvertising(String adapterPath) {
+        BleAdapter adapter = getAdapter(adapterPath);
+        if (adapter == null || maxConnectionsPerAdapter <= 0 || !registered) {
+            return;
+        }
+        synchronized (adapter) {
+            applyAdvertisements(adapter);
+        }
+    }
+
+    private BleAdapter getAdapter(String adapterPath) {
+        for (BleAdapter adapter : adapters) {
+            if (adapter.getPath().equals(adapterPath)) {
+                return adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The unique bus name of the bluetoothd where the application is registered, null if it is not registered.
+     */
+    String getBluezOwner() {
+        return registered ? bluezDbusBusName : null;
+    }
+
+    /**
+     * Called by the supervisor when bluetoothd exits: its registrations, its objects and its devices are gone.
+     * The objects stay exported on the connection, ready for the next registration.
+     */
+    void bluezLost() {
+        registered = false;
+        bluezDbusBusName = null;
+        for (BleAdapter adapter : adapters) {
+            adapter.clearAdvertisements();
+        }
+        bluezObjects.clear();
+        clearDevices();
+    }
+
+    /**
+     * Called by the supervisor when bluetoothd is back: find the adapters again, then register the advertisements
+     * and the application.
+     *
+     * @return true if the application is registered
+     * @throws DBusException
+     */
+    boolean reregister() throws DBusException {
+        if (transport == null) {
+            return false;
+        }
+        if (registered) {
+            return true;
+        }
+        updateBluezOwner();
+        initAdapters();
+        if (adapters.isEmpty()) {
+            return false;
+        }
+        return register();
+    }
+
+    /**
+     * Remember the unique name of bluetoothd and subscribe its signals, only its signals are handled.
+     *
+     * @throws DBusException
+     */
+    private void updateBluezOwner() throws DBusException {
+        DBus dbus = transport.getRemoteObject(DBUS_BUSNAME, "/or/freedesktop/DBus", DBus.class);
+        String owner = dbus.GetNameOwner(BLUEZ_DBUS_BUSNAME);
+        if (owner == null || owner.isEmpty()) {
+            throw new DBusException("bluez is not running [name=" + BLUEZ_DBUS_BUSNAME + "]");
+        }
+        subscribeBluezSignals(owner);
+        bluezDbusBusName = owner;
+    }
+
+    /**
+     * Create the handlers and subscribe the signals of the running bluetoothd. This is done before the seed
+     * of the bluez objects mirror, so no change is lost between the seed and the signals.
+     *
+     * @throws DBusException
+     */
     protected void initInterfacesHandler() throws DBusException {
-        DBus dbus = dbusConnection.getRemoteObject(DBUS_BUSNAME, "/or/freedesktop/DBus", DBus.class);
-        String bluezDbusBusName = dbus.GetNameOwner(BLUEZ_DBUS_BUSNAME);
-        ObjectManager bluezObjectManager = (ObjectManager) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+        createInterfacesHandlers();
+        updateBluezOwner();
+    }
+
+    /**
+     * Subscribe the bluez signals with the unique name of bluetoothd in the match rules, so the bus sends
+     * only its signals. When bluetoothd restarts the supervisor finds the new name and the handlers are
+     * subscribed again with it. The subscriptions of the previous bluetoothd are removed by stop(): its name
+     * is never given again, so they receive nothing, and dbus-java sends RemoveMatch holding the lock its
+     * reader thread needs for every signal, so removing them while the new bluetoothd publishes its objects
+     * could block the connection.
+     *
+     * @param owner
+     * @throws DBusException
+     */
+    private void subscribeBluezSignals(String owner) throws DBusException {
+        synchronized (bluezSignalSources) {
+            if (interfacesAddedSignalHandler == null || bluezSignalSources.contains(owner)) {
+                return;
+            }
+            transport.addSigHandler(InterfacesAdded.class, owner, interfacesAddedSignalHandler);
+            transport.addSigHandler(InterfacesRemoved.class, owner, interfacesRemovedSignalHandler);
+            transport.addSigHandler(PropertiesChanged.class, owner, propertiesChangedSignalHandler);
+            bluezSignalSources.add(owner);
+        }
+    }
+
+    private void removeInterfacesHandler() throws DBusException {
+        if (interfacesAddedSignalHandler == null) {
+            return;
+        }
+        bluezDbusBusName = null;
+        synchronized (bluezSignalSources) {
+            for (String owner : bluezSignalSources) {
+                transport.removeSigHandler(InterfacesAdded.class, owner, interfacesAddedSignalHandler);
+                transport.removeSigHandler(InterfacesRemoved.class, owner, interfacesRemovedSignalHandler);
+                transport.removeSigHandler(PropertiesChanged.class, owner, propertiesChangedSignalHandler);
+            }
+            bluezSignalSources.clear();
+        }
+        interfacesAddedSignalHandler = null;
+        interfacesRemovedSignalHandler = null;
+        propertiesChangedSignalHandler = null;
+    }
 
+    /**
+     * A signal of a previous bluetoothd can still be queued when the new one is found.
+     *
+     * @return true if the signal comes from the current bluetoothd, or it was not received from the bus
+     */
+    private boolean isFromBluez(DBusSignal signal) {
+        String source = signal.getSource();
+        return source == null || source.equals(bluezDbusBusName);
+    }
+
+    /**
+     * Create the handlers of the bluez signals, they update the mirror of the bluez objects and the devices.
+     * They are not bound to the connection, so they can be exercised without bluez.
+     */
+    void createInterfacesHandlers() {
+        final SignalMetrics interfacesAddedMetrics = new SignalMetrics("InterfacesAdded");
+        final SignalMetrics interfacesRemovedMetrics = new SignalMetrics("InterfacesRemoved");
+        final SignalMetrics propertiesChangedMetrics = new SignalMetrics("PropertiesChanged");
         interfacesAddedSignalHandler = new DBusSigHandler<InterfacesAdded>() {
             @Override
             public void handle(InterfacesAdded signal) {
-                Map<String, Variant> iamap = signal.getInterfacesAdded().get(BLUEZ_DEVICE_INTERFACE);
-                if (iamap != null) {
-                    Variant<String> address = iamap.get("Address");
-                    hasDeviceConnected.set(true);
-                    if (listener != null) {
-                        listener.deviceConnected(address.getValue());
-                    }
+                long start = System.nanoTime();
+                try {
+                    interfacesAdded(signal);
+                    interfacesAddedMetrics.handled(start);
+                } catch (RuntimeException e) {
+                    interfacesAddedMetrics.failed();
+                    throw e;
                 }
             }
         };
@@ -179,20 +613,175 @@ public class BleApplication implements GattApplication1 {
         interfacesRemovedSignalHandler = new DBusSigHandler<InterfacesRemoved>() {
             @Override
             public void handle(InterfacesRemoved signal) {
-                List<String> irlist = signal.getInterfacesRemoved();
-                for (String ir : irlist) {
-                    if (BLUEZ_DEVICE_INTERFACE.equals(ir)) {
-                        hasDeviceConnected.set(false);
-                        if (listener != null) {
-                            listener.deviceDisconnected(ir);
-                        }
-                    }
+                long start = System.nanoTime();
+                try {
+                    interfacesRemoved(signal);
+                    interfacesRemovedMetrics.handled(start);
+                } catch (RuntimeException e) {
+                    interfacesRemovedMetrics.failed();
+                    throw e;
                 }
             }
         };
 
-        dbusConnection.addSigHandler(InterfacesAdded.class, bluezDbusBusName, bluezObjectManager, interfacesAddedSignalHandler);
-        dbusConnection.addSigHandler(InterfacesRemoved.class, bluezDbusBusName, bluezObjectManager, interfacesRemovedSignalHandler);
+        propertiesChangedSignalHandler = new DBusSigHandler<PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesChanged signal) {
+                long start = System.nanoTime();
+                try {
+                    propertiesChanged(signal);
+                    propertiesChangedMetrics.handled(start);
+                } catch (RuntimeException e) {
+                    propertiesChangedMetrics.failed();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private void interfacesAdded(InterfacesAdded signal) {
+        if (!isFromBluez(signal)) {
+            return;
+        }
+        bluezObjects.interfacesAdded(signal.getObjectPath().toString(), signal.getInterfacesAdded());
+        Map<String, ?> iamap = signal.getInterfacesAdded().get(BLUEZ_DEVICE_INTERFACE);
+        if (iamap != null && isOwnDevice(signal.getObjectPath().toString())) {
+            updateDevice(signal.getObjectPath().toString(), iamap);
+        }
+    }
+
+    private void interfacesRemoved(InterfacesRemoved signal) {
+        if (!isFromBluez(signal)) {
+            return;
+        }
+        bluezObjects.interfacesRemoved(signal.getObjectPath().toString(), signal.getInterfacesRemoved());
+        if (!signal.getInterfacesRemoved().contains(BLUEZ_DEVICE_INTERFACE)) {
+            return;
+        }
+        String devicePath = signal.getObjectPath().toString();
+        BleDevice device = deviceRegistry.getDeviceByPath(devicePath);
+        if (device != null) {
+            setDeviceConnected(device, false);
+            deviceRegistry.remove(devicePath);
+        }
+    }
+
+    private void propertiesChanged(PropertiesChanged signal) {
+        if (!isFromBluez(signal)) {
+            return;
+        }
+        bluezObjects.propertiesChanged(signal.getPath(), signal.getIface(), signal.getPropertiesChanged(), signal.getPropertiesRemoved());
+        if (!BLUEZ_DEVICE_INTERFACE.equals(signal.getIface())) {
+            return;
+        }
+        Object connected = getPropertyValue(signal.getPropertiesChanged(), DEVICE_CONNECTED_PROPERTY_KEY);
+        if (connected instanceof Boolean && isOwnDevice(signal.getPath())) {
+            BleDevice device = deviceRegistry.add(signal.getPath(), null);
+            setDeviceConnected(device, (Boolean) connected);
+        }
+    }
+
+    /**
+     * The latency and the failures of the handler of one bluez signal, in the metrics set when the handlers are created.
+     */
+    private class SignalMetrics {
+        private final BleMetrics.Timer latency;
+        private final BleMetrics.Counter errors;
+
+        SignalMetrics(String signal) {
+            this.latency = metrics.timer(BleMetricsRegistry.SIGNAL_HANDLER, BleMetricsRegistry.SIGNAL_LABEL, signal);
+            this.errors = metrics.counter(BleMetricsRegistry.SIGNAL_HANDLER_ERRORS, BleMetricsRegistry.SIGNAL_LABEL, signal);
+        }
+
+        void handled(long start) {
+            latency.record(System.nanoTime() - start);
+        }
+
+        void failed() {
+            errors.increment();
+        }
+    }
+
+    DBusSigHandler<InterfacesAdded> getInterfacesAddedSignalHandler() {
+        return interfacesAddedSignalHandler;
+    }
+
+    DBusSigHandler<InterfacesRemoved> getInterfacesRemovedSignalHandler() {
+        return interfacesRemovedSignalHandler;
+    }
+
+    DBusSigHandler<PropertiesChanged> getPropertiesChangedSignalHandler() {
+        return propertiesChangedSignalHandler;
+    }
+
+    /**
+     * Register or update a device from its org.bluez.Device1 properties.
+     */
+    private void updateDevice(String devicePath, Map<String, ?> deviceProperties) {
+        Object address = getPropertyValue(deviceProperties, DEVICE_ADDRESS_PROPERTY_KEY);
+        BleDevice device = deviceRegistry.add(devicePath, (address instanceof String) ? (String) address : null);
+        Object connected = getPropertyValue(deviceProperties, DEVICE_CONNECTED_PROPERTY_KEY);
+        if (connected instanceof Boolean) {
+            setDeviceConnected(device, (Boolean) connected);
+        }
+    }
+
+    /**
+     * @return the value of the Variant of a property, null if it is missing
+     */
+    private static Object getPropertyValue(Map<String, ?> properties, String key) {
+        Object property = properties.get(key);
+        return (property instanceof Variant) ? ((Variant<?>) property).getValue() : null;
+    }
+
+    /**
+     * @return true if the device is seen by one of the adapters of the application
+     */
+    private boolean isOwnDevice(String devicePath) {
+        return getAdapter(devicePath.substring(0, devicePath.lastIndexOf('/'))) != null;
+    }
+
+    /**
+     * Called by the characteristics with the mtu option that bluez sends with the reads and the writes.
+     */
+    void updateMtu(String devicePath, int mtu) {
+        deviceRegistry.setMtu(deviceRegistry.add(devicePath, null), mtu);
+    }
+
+    /**
+     * Disconnect the connected devices as a bluez signal does, so the listener and the metrics see them,
+     * then forget every device.
+     */
+    private void clearDevices() {
+        for (BleDevice device : deviceRegistry.getConnectedDevices()) {
+            setDeviceConnected(device, false);
+        }
+        deviceRegistry.clear();
+    }
+
+    /**
+     * Change the connection state of a device and inform the listener if it changed.
+     */
+    private void setDeviceConnected(BleDevice device, boolean connected) {
+        long connectedSince = device.getConnectedSince();
+        if (!deviceRegistry.setConnected(device, connected)) {
+            return;
+        }
+        if (connected) {
+            metrics.counter(BleMetricsRegistry.DEVICE_CONNECTS).increment();
+        } else if (connectedSince > 0) {
+            long millis = System.currentTimeMillis() - connectedSince;
+            metrics.timer(BleMetricsRegistry.DEVICE_CONNECTION).record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        updateAdvertising(device.getAdapterPath());
+        if (listener == null) {
+            return;
+        }
+        if (connected) {
+            listener.deviceConnected(device.getAddress());
+        } else {
+            listener.deviceDisconnected(device.getAddress());
+        }
     }
 
     /**
@@ -205,12 +794,290 @@ public class BleApplication implements GattApplication1 {
         adapterAlias = alias;
     }
 
-    public void addService(BleService service) {
+    /**
+     * Bind the application to one adapter, by name (hci1) or by path (/org/bluez/hci1).
+     * By default the application uses the first adapter with GattManager1 and LEAdvertisingManager1.
+     * This must set before start to take effect.
+     *
+     * @param adapter
+     */
+    public void setAdapter(String adapter) {
+        this.adapterId = adapter;
+        this.allAdapters = false;
+    }
+
+    /**
+     * Register the application and the advertisement on every adapter with GattManager1 and LEAdvertisingManager1,
+     * so the centrals are spread over all the radios. This must set before start to take effect.
+     *
+     * @param allAdapters
+     */
+    public void setAllAdapters(boolean allAdapters) {
+        this.allAdapters = allAdapters;
+        if (allAdapters) {
+            this.adapterId = null;
+        }
+    }
+
+    /**
+     * Set how many devices can connect through one adapter. When an adapter reaches the limit its advertisement
+     * is unregistered, so the new centrals find the application on the other adapters. 0 means no limit.
+     *
+     * @param max
+     */
+    public void setMaxConnectionsPerAdapter(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("The connection limit can't be negative [max=" + max + "]");
+        }
+        this.maxConnectionsPerAdapter = max;
+    }
+
+    /**
+     * The adapters where the application is registered, they are known between start() and stop().
+     *
+     * @return
+     */
+    public List<BleAdapter> getAdapters() {
+        return Collections.unmodifiableList(adapters);
+    }
+
+    /**
+     * Set the address of the D-Bus bus where bluez is, for example "unix:path=/run/dbus/custom_bus_socket".
+     * By default it is the system bus. This must set before start to take effect.
+     *
+     * @param busAddress
+     */
+    public void setBusAddress(String busAddress) {
+        this.busAddress = busAddress;
+    }
+
+    /**
+     * Use the given transport instead of a dbus-java connection to the bus address, for example a BleLoopbackTransport
+     * to run the application without bluetoothd. The application doesn't disconnect it on stop.
+     * This must set before start to take effect.
+     *
+     * @param transport
+     */
+    public void setTransport(BleTransport transport) {
+        this.customTransport = transport;
+    }
+
+    /**
+     * Choose the D-Bus binding opened by start, DBUS_JAVA by default. DBUS_JAVA_4 needs Java 16 or better
+     * and a unix: bus address. This must set before start to take effect.
+     *
+     * @param backend
+     */
+    public void setTransportBackend(TransportBackend backend) {
+        if (backend == TransportBackend.DBUS_JAVA_4 && !BleDBus4Transport.isSupported()) {
+            throw new IllegalArgumentException("The dbus-java 4 transport needs Java 16 or better");
+        }
+        this.transportBackend = backend;
+    }
+
+    public TransportBackend getTransportBackend() {
+        return transportBackend;
+    }
+
+    /**
+     * Set where the application records its metrics: the latency and the errors of the reads, the writes and the
+     * notifications of every characteristic, the registration time, the latency of the bluez signal handlers,
+     * the connections and their duration. By default a BleMetricsRegistry, BleMetrics.NONE records nothing.
+     * The signal handlers take the metrics set before start.
+     *
+     * @param metrics
+     */
+    public void setMetrics(BleMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("The metrics can't be null, BleMetrics.NONE records nothing");
+        }
+        this.metrics = metrics;
+    }
+
+    public BleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the executor that runs the asynchronous characteristic listeners.
+     * By default they run on virtual threads when the JDK supports them, otherwise on a cached thread pool.
+     *
+     * @param handlerExecutor
+     */
+    public synchronized void setHandlerExecutor(Executor handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+    }
+
+    public synchronized Executor getHandlerExecutor() {
+        if (handlerExecutor == null) {
+            handlerExecutor = BleExecutors.newHandlerExecutor();
+        }
+        return handlerExecutor;
+    }
+
+    /**
+     * Set how long a read or a write waits for an asynchronous listener, then bluez receives org.bluez.Error.Failed.
+     *
+     * @param millis
+     */
+    public void setHandlerTimeout(long millis) {
+        this.handlerTimeoutMillis = millis;
+    }
+
+    public long getHandlerTimeout() {
+        return handlerTimeoutMillis;
+    }
+
+    /**
+     * Set how many threads dispatch the D-Bus calls and signals (both backends use 4 by default),
+     * so a slow listener doesn't stall the other characteristics. This must set before start to take effect.
+     *
+     * @param threads from 1 to 127
+     */
+    public void setDispatchThreads(int threads) {
+        if (threads < 1 || threads > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Dispatch threads must be between 1 and " + Byte.MAX_VALUE + " [threads=" + threads + "]");
+        }
+        this.dispatchThreads = threads;
+    }
+
+    /**
+     * Add a service to the application. If the application is running, only the new service is exported
+     * and bluez is informed with InterfacesAdded, the connected devices are not disturbed.
+     *
+     * @param service
+     */
+    public synchronized void addService(BleService service) {
         this.servicesList.add(service);
+        service.setApplication(this);
+        invalidateManagedObjects();
+        if (exported) {
+            try {
+                service.export(transport);
+                sendInterfacesAdded(service.getPath(), service.getProperties());
+                for (BleCharacteristic characteristic : service.getCharacteristics()) {
+                    sendInterfacesAdded(characteristic);
+                }
+            } catch (DBusException e) {
+                throw new RuntimeException("Cannot export the service [path=" + service.getPath() + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Remove a service from the application. The pending notifications of its characteristics are discarded.
+     * If the application is running, bluez is informed with InterfacesRemoved for the descriptors,
+     * the characteristics and the service, and only the removed service is unexported.
+     *
+     * @param service
+     */
+    public synchronized void removeService(BleService service) {
+        if (!this.servicesList.remove(service)) {
+            return;
+        }
+        service.setApplication(null);
+        invalidateManagedObjects();
+        for (BleCharacteristic characteristic : service.getCharacteristics()) {
+            notificationScheduler.cancel(characteristic);
+        }
+        if (exported) {
+            try {
+                for (BleCharacteristic characteristic : service.getCharacteristics()) {
+                    sendInterfacesRemoved(characteristic);
+                }
+                sendInterfacesRemoved(service.getPath(), service.getProperties());
+                service.unexport(transport);
+            } catch (DBusException e) {
+                throw new RuntimeException("Cannot unexport the service [path=" + service.getPath() + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Called by the service when a characteristic is added while the application is running.
+     */
+    synchronized void characteristicAdded(BleService service, BleCharacteristic characteristic) {
+        if (!exported || !servicesList.contains(service)) {
+            return;
+        }
+        try {
+            characteristic.export(transport);
+            sendInterfacesAdded(characteristic);
+        } catch (DBusException e) {
+            throw new RuntimeException("Cannot export the characteristic [path=" + characteristic.getPath() + "]", e);
+        }
+    }
+
+    /**
+     * Called by the service when a characteristic is removed while the application is running.
+     */
+    synchronized void characteristicRemoved(BleService service, BleCharacteristic characteristic) {
+        if (!servicesList.contains(service)) {
+            return;
+        }
+        notificationScheduler.cancel(characteristic);
+        if (!exported) {
+            return;
+        }
+        try {
+            sendInterfacesRemoved(characteristic);
+            characteristic.unexport(transport);
+        } catch (DBusException e) {
+            throw new RuntimeException("Cannot unexport the characteristic [path=" + characteristic.getPath() + "]", e);
+        }
     }
 
-    public void removeService(BleService service) {
-        this.servicesList.remove(service);
+    /**
+     * Called by the characteristic when a descriptor is added while the application is running.
+     */
+    synchronized void descriptorAdded(BleCharacteristic characteristic, BleDescriptor descriptor) {
+        if (!exported || !characteristic.isExportedOn(transport)) {
+            return;
+        }
+        try {
+            descriptor.export(transport);
+            sendInterfacesAdded(descriptor.getPath(), descriptor.getProperties());
+        } catch (DBusException e) {
+            throw new RuntimeException("Cannot export the descriptor [path=" + descriptor.getPath() + "]", e);
+        }
+    }
+
+    /**
+     * Called by the characteristic when a descriptor is removed while the application is running.
+     */
+    synchronized void descriptorRemoved(BleCharacteristic characteristic, BleDescriptor descriptor) {
+        if (!exported || !characteristic.isExportedOn(transport)) {
+            return;
+        }
+        try {
+            sendInterfacesRemoved(descriptor.getPath(), descriptor.getProperties());
+            descriptor.unexport(transport);
+        } catch (DBusException e) {
+            throw new RuntimeException("Cannot unexport the descriptor [path=" + descriptor.getPath() + "]", e);
+        }
+    }
+
+    private void sendInterfacesAdded(BleCharacteristic characteristic) throws DBusException {
+        sendInterfacesAdded(characteristic.getPath(), characteristic.getProperties());
+        for (BleDescriptor descriptor : characteristic.getDescriptors()) {
+            sendInterfacesAdded(descriptor.getPath(), descriptor.getProperties());
+        }
+    }
+
+    private void sendInterfacesRemoved(BleCharacteristic characteristic) throws DBusException {
+        for (BleDescriptor descriptor : characteristic.getDescriptors()) {
+            sendInterfacesRemoved(descriptor.getPath(), descriptor.getProperties());
+        }
+        sendInterfacesRemoved(characteristic.getPath(), characteristic.getProperties());
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void sendInterfacesAdded(Path objectPath, Map<String, Map<String, Variant>> interfaces) throws DBusException {
+        transport.sendSignal(new InterfacesAdded(path, objectPath, interfaces));
+    }
+
+    private void sendInterfacesRemoved(Path objectPath, Map<String, ?> interfaces) throws DBusException {
+        transport.sendSignal(new InterfacesRemoved(path, objectPath, new ArrayList<String>(interfaces.keySet())));
     }
 
     public List<BleService> getServicesList() {
@@ -218,54 +1085,210 @@ public class BleApplication implements GattApplication1 {
     }
 
     public boolean hasDeviceConnected() {
-        return hasDeviceConnected.get();
+        return deviceRegistry.hasConnectedDevice();
     }
 
-    public BleAdvertisement getAdvertisement() {
-        return adv;
+    /**
+     * The devices known by bluez, with their connection state.
+     *
+     * @return
+     */
+    public BleDeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
     }
 
-    public boolean isDeviceConnected(String id) {
-        return false; // TODO IMPLEMENT
+    /**
+     * The local mirror of the bluez objects (adapters, devices, ...), kept up to date by the bluez signals.
+     * It is filled between start() and stop().
+     *
+     * @return
+     */
+    public BleObjectManagerMirror getBluezObjects() {
+        return bluezObjects;
     }
 
     /**
-     * Search for a Adapter that has GattManager1 and LEAdvertisement1 interfaces, otherwise return null.
+     * The scheduler that coalesces and rate-limits the notifications of this application's characteristics.
+     * It is running between start() and stop().
+     *
+     * @return
+     */
+    public BleNotificationScheduler getNotificationScheduler() {
+        return notificationScheduler;
+    }
+
+    /**
+     * Enable or disable the registration of the application every time bluetoothd restarts, enabled by default.
+     * This must set before start to take effect.
+     *
+     * @param supervised
+     */
+    public void setSupervised(boolean supervised) {
+        this.supervised = supervised;
+    }
+
+    /**
+     * The supervisor that registers the application again when bluetoothd restarts.
      *
      * @return
-     * @throws DBusException
      */
-    private String findAdapterPath() throws DBusException {
-        ObjectManager bluezObjectManager = (ObjectManager) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
-        if (bluezObjectManager == null) {
-            return null;
+    public BleSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    /**
+     * @return true if the advertisement and the application are registered in bluez
+     */
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * Send at once the notifications of many characteristics, for example when one event changes dozens of them.
+     * Every notification takes the same path as BleCharacteristic.sendNotification(byte[]) and is counted
+     * in the notify metrics. The characteristics without a subscribed central and the ones
+     * that are not exported by this application are skipped. A notification that fails is counted in the
+     * notify errors of its characteristic and the others are still sent.
+     *
+     * @param values the new value of every characteristic
+     * @return the number of notifications sent
+     */
+    public int notifyCharacteristics(Map<BleCharacteristic, byte[]> values) {
+        BleTransport transport = this.transport;
+        if (transport == null) {
+            return 0;
+        }
+        int sent = 0;
+        for (Map.Entry<BleCharacteristic, byte[]> value : values.entrySet()) {
+            if (value.getValue() != null && isExported(value.getKey(), transport)
+                    && value.getKey().sendNotification(transport, value.getValue())) {
+                sent++;
+            }
         }
+        return sent;
+    }
 
-        Map<Path, Map<String, Map<String, Variant>>> bluezManagedObject = bluezObjectManager.GetManagedObjects();
-        if (bluezManagedObject == null) {
-            return null;
+    /**
+     * Send at once the notifications of many characteristics, every value is asked to its listener or value source.
+     *
+     * @param characteristics
+     * @return the number of notifications sent
+     * @see #notifyCharacteristics(Map)
+     */
+    public int notifyCharacteristics(Collection<BleCharacteristic> characteristics) {
+        BleTransport transport = this.transport;
+        if (transport == null) {
+            return 0;
         }
+        int sent = 0;
+        for (BleCharacteristic characteristic : characteristics) {
+            if (isExported(characteristic, transport) && characteristic.sendNotification(transport, null)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
 
-        for (Path path : bluezManagedObject.keySet()) {
-            Map<String, Map<String, Variant>> value = bluezManagedObject.get(path);
-            boolean hasGattManager = false;
-            boolean hasAdvManager = false;
+    private boolean isExported(BleCharacteristic characteristic, BleTransport transport) {
+        BleService service = characteristic.getService();
+        return service != null && service.getApplication() == this && servicesList.contains(service)
+                && characteristic.isExportedOn(transport);
+    }
+
+    public BleAdvertisement getAdvertisement() {
+        return adv;
+    }
 
-            for (String key : value.keySet()) {
-                if (key.equals(BLUEZ_GATT_INTERFACE)) {
-                    hasGattManager = true;
+    /**
+     * Add an advertisement, for example to make discoverable a service that doesn't fit in the first one.
+     * Every adapter registers as many advertisements as its SupportedInstances, when there are more
+     * they take turns in time slices. If the application is running the advertisement is registered at once
+     * where there is a free instance.
+     * dbus-java matches the object paths by prefix, so the path must not extend another one without a slash:
+     * /app/advertisement/1 works, /app/advertisement1 doesn't.
+     *
+     * @param advertisement
+     */
+    public void addAdvertisement(BleAdvertisement advertisement) {
+        synchronized (this) {
+            if (advertisements.contains(advertisement)) {
+                return;
+            }
+            if (exported) {
+                try {
+                    advertisement.export(transport);
+                } catch (DBusException e) {
+                    throw new RuntimeException("Cannot export the advertisement [path=" + advertisement.getPath() + "]", e);
                 }
-                if (key.equals(BLUEZ_LE_ADV_INTERFACE)) {
-                    hasAdvManager = true;
+            }
+            advertisement.setApplication(this);
+            advertisements.add(advertisement);
+        }
+        if (registered) {
+            for (BleAdapter adapter : adapters) {
+                synchronized (adapter) {
+                    applyAdvertisements(adapter);
                 }
+            }
+        }
+        startAdvertisementRotation();
+    }
 
-                if (hasGattManager && hasAdvManager) {
-                    return path.toString();
+    /**
+     * Remove an advertisement. If the application is running the advertisement is unregistered
+     * and its instance goes to the next advertisement.
+     *
+     * @param advertisement
+     */
+    public void removeAdvertisement(BleAdvertisement advertisement) {
+        if (!advertisements.remove(advertisement)) {
+            return;
+        }
+        advertisement.setApplication(null);
+        for (BleAdapter adapter : adapters) {
+            synchronized (adapter) {
+                if (adapter.isRegistered(advertisement)) {
+                    unregisterAdvertisement(adapter, advertisement);
+                    if (registered) {
+                        applyAdvertisements(adapter);
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            if (exported) {
+                try {
+                    advertisement.unexport(transport);
+                } catch (DBusException e) {
+                    throw new RuntimeException("Cannot unexport the advertisement [path=" + advertisement.getPath() + "]", e);
                 }
             }
         }
+    }
 
-        return null;
+    public List<BleAdvertisement> getAdvertisements() {
+        return Collections.unmodifiableList(advertisements);
+    }
+
+    /**
+     * Set how long every group of advertisements stays registered when an adapter has more advertisements
+     * than instances. This must set before start to take effect.
+     *
+     * @param millis
+     */
+    public void setAdvertisementRotationInterval(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("The rotation interval must be positive [millis=" + millis + "]");
+        }
+        this.advertisementRotationMillis = millis;
+    }
+
+    /**
+     * @param id: address or bluez object path of the device
+     * @return
+     */
+    public boolean isDeviceConnected(String id) {
+        return deviceRegistry.isConnected(id);
     }
 
     /**
@@ -273,14 +1296,15 @@ public class BleApplication implements GattApplication1 {
      *
      * @throws DBusException
      */
-    private void export() throws DBusException {
-        if (adv != null) {
-            adv.export(dbusConnection);
+    private synchronized void export() throws DBusException {
+        for (BleAdvertisement advertisement : advertisements) {
+            advertisement.export(transport);
         }
         for (BleService service : servicesList) {
-            service.export(dbusConnection);
+            service.export(transport);
         }
-        dbusConnection.exportObject(path, this);
+        transport.exportObject(path, this);
+        exported = true;
     }
 
     /**
@@ -288,14 +1312,15 @@ public class BleApplication implements GattApplication1 {
      *
      * @throws DBusException
      */
-    private void unexport() throws DBusException {
-        if (adv != null) {
-            adv.unexport(dbusConnection);
+    private synchronized void unexport() throws DBusException {
+        exported = false;
+        for (BleAdvertisement advertisement : advertisements) {
+            advertisement.unexport(transport);
         }
         for (BleService service : servicesList) {
-            service.unexport(dbusConnection);
+            service.unexport(transport);
         }
-        dbusConnection.unExportObject(path);
+        transport.unexportObject(path);
     }
 
     @Override
@@ -303,17 +1328,45 @@ public class BleApplication implements GattApplication1 {
         return false;
     }
 
+    /**
+     * Return the whole tree of services, characteristics and descriptors. The tree is built once and cached
+     * until a service or a characteristic changes, so it must not be modified.
+     */
     @Override
+    @SuppressWarnings("rawtypes")
     public Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects() {
+        Map<Path, Map<String, Map<String, Variant>>> managedObjects = this.managedObjects;
+        if (managedObjects == null) {
+            synchronized (this) {
+                if (this.managedObjects == null) {
+                    this.managedObjects = buildManagedObjects();
+                }
+                managedObjects = this.managedObjects;
+            }
+        }
+        return managedObjects;
+    }
+
+    /**
+     * Drop the cached tree returned by GetManagedObjects().
+     */
+    synchronized void invalidateManagedObjects() {
+        this.managedObjects = null;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Map<Path, Map<String, Map<String, Variant>>> buildManagedObjects() {
         Map<Path, Map<String, Map<String, Variant>>> response = new HashMap<Path, Map<String, Map<String, Variant>>>();
         for (BleService service : servicesList) {
             response.put(service.getPath(), service.getProperties());
             for (BleCharacteristic characteristic : service.getCharacteristics()) {
                 response.put(characteristic.getPath(), characteristic.getProperties());
-                // TODO foreach Description in Characteristic
+                for (BleDescriptor descriptor : characteristic.getDescriptors()) {
+                    response.put(descriptor.getPath(), descriptor.getProperties());
+                }
             }
         }
-        return response;
+        return Collections.unmodifiableMap(response);
     }
 
     // add primary service uuids to advertisement
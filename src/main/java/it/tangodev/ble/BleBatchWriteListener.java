@@ -0,0 +1,17 @@
+package it.tangodev.ble;
+
+import java.util.List;
+
+/**
+ * Interface that receives the write-without-response packets of one Characteristic in batches.
+ * The method is called on the application's handler executor, not on the D-Bus dispatch thread.
+ * The batches of one device are delivered one at a time and in the order the packets arrived.
+ */
+public interface BleBatchWriteListener {
+	/**
+	 * @param characteristic
+	 * @param device: the bluez object path of the central, empty if bluez didn't send it
+	 * @param values: the packets, the list can be kept by the listener
+	 */
+	public void valuesWritten(BleCharacteristic characteristic, String device, List<byte[]> values);
+}
@@ -0,0 +1,43 @@
+package it.tangodev.ble;
+
+import java.nio.ByteBuffer;
+
+import org.bluez.Error;
+
+/**
+ * Value source that serve the slices of the last ByteBuffer set by the producer.
+ * The producer replaces the buffer instead of modifying it, so a read never sees a value that is half updated.
+ */
+public class BleByteBufferValueSource implements BleCharacteristicValueSource {
+
+	private volatile ByteBuffer value;
+
+	public BleByteBufferValueSource() {
+		this(ByteBuffer.allocate(0));
+	}
+
+	public BleByteBufferValueSource(ByteBuffer value) {
+		setValue(value);
+	}
+
+	/**
+	 * Set the value, that is between the position and the limit of the buffer.
+	 * The buffer must not be modified after this call.
+	 * @param value
+	 */
+	public void setValue(ByteBuffer value) {
+		this.value = value.slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public ByteBuffer getValue(int offset, int maxLength) {
+		ByteBuffer slice = value.duplicate();
+		if(offset > slice.limit()) {
+			throw new Error.InvalidOffset("Offset out of value [offset=" + offset + ", length=" + slice.limit() + "]");
+		}
+		slice.position(offset);
+		slice.limit(offset + Math.min(maxLength, slice.remaining()));
+		return slice;
+	}
+
+}
@@ -2,20 +2,33 @@ package it.tangodev.ble;
 
 import it.tangodev.utils.Utils;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
+import org.bluez.Error;
 import org.bluez.GattCharacteristic1;
-import org.dbus.PropertiesChangedSignal.PropertiesChanged;
 import org.freedesktop.DBus.Properties;
-import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.Path;
-import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 
 /**
  * BleCharacteristic represent a single peripheral's value that can be read, write or notified.
@@ -30,14 +43,57 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 	private static final String CHARACTERISTIC_UUID_PROPERTY_KEY = "UUID";
 	private static final String CHARACTERISTIC_FLAGS_PROPERTY_KEY = "Flags";
 	private static final String CHARACTERISTIC_DESCRIPTORS_PROPERTY_KEY = "Descriptors";
+	private static final String PROPERTIES_INTERFACE = "org.freedesktop.DBus.Properties";
+	private static final String PROPERTIES_CHANGED_SIGNAL = "PropertiesChanged";
+	private static final String PROPERTIES_CHANGED_SIGNATURE = "sa{sv}as";
+	private static final String OFFSET_OPTION_KEY = "offset";
+	private static final String MTU_OPTION_KEY = "mtu";
+	private static final String DEVICE_OPTION_KEY = "device";
+	private static final String TYPE_OPTION_KEY = "type";
+	private static final String WRITE_COMMAND_TYPE = "command";
+	private static final String WRITE_RELIABLE_TYPE = "reliable";
+	private static final String PREPARE_AUTHORIZE_OPTION_KEY = "prepare-authorize";
 	public static final String CHARACTERISTIC_VALUE_PROPERTY_KEY = "Value";
+	public static final int DEFAULT_ATT_MTU = 23;
+	// opcode and handle of a notification
+	public static final int NOTIFICATION_HEADER_LENGTH = 3;
+	// sequence number and flags in front of every frame sent by sendStream()
+	public static final int STREAM_HEADER_LENGTH = 2;
+	public static final int STREAM_FLAG_START = 0x01;
+	public static final int STREAM_FLAG_END = 0x02;
+	public static final long DEFAULT_READ_SNAPSHOT_TIMEOUT_MILLIS = 2000;
+	public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 256;
+	public static final long DEFAULT_WRITE_ASSEMBLY_TIMEOUT_MILLIS = 100;
 	
 	private BleService service = null;
 	protected String uuid = null;
 	private List<String> flags = new ArrayList<String>();;
+	private List<BleDescriptor> descriptors = new CopyOnWriteArrayList<BleDescriptor>();
 	protected String path = null;
-	private boolean isNotifying = false;
+	// written by the D-Bus dispatch thread, read by the threads that send the notifications
+	private final AtomicBoolean isNotifying = new AtomicBoolean(false);
 	protected BleCharacteristicListener listener;
+	private BleCharacteristicValueSource valueSource;
+	private BleCharacteristicListenerValueSource listenerValueSource;
+	private BleCharacteristicAsyncListener asyncListener;
+	// the reads of the asynchronous listener, built once with it
+	private BleCharacteristicListenerValueSource asyncValueSource;
+	private final BleReadSnapshots readSnapshots = new BleReadSnapshots(DEFAULT_READ_SNAPSHOT_TIMEOUT_MILLIS);
+	private BleSubscriptionListener subscriptionListener;
+	private final BleWriteAssembler writeAssembler = new BleWriteAssembler(this, DEFAULT_WRITE_ASSEMBLY_TIMEOUT_MILLIS);
+	private volatile boolean assembleUntypedWrites = false;
+	private final BleWriteQueues writeQueues = new BleWriteQueues(this, DEFAULT_WRITE_QUEUE_CAPACITY, WriteOverflowPolicy.DROP_OLDEST);
+	private volatile BleTransport transport = null;
+	private volatile BleCharacteristicMetrics metrics = null;
+	// guarded by streamLock
+	private final Object streamLock = new Object();
+	private int streamSequence = 0;
+	// the full frame reused by the streams when the transport writes the signals at once
+	private byte[] streamFrame;
+	// built on demand and dropped by invalidateProperties()
+	@SuppressWarnings("rawtypes")
+	private volatile Map<String, Map<String, Variant>> properties = null;
+	private volatile Path cachedPath = null;
 	
 	/**
 	 * A flag indicate the operation allowed on a single characteristic.
@@ -71,6 +127,18 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 		}
 	}
 	
+	/**
+	 * What a write-without-response does when the queue of its device is full.
+	 */
+	public enum WriteOverflowPolicy {
+		/** the new packet is dropped */
+		DROP_NEWEST,
+		/** the oldest queued packet is dropped to make room */
+		DROP_OLDEST,
+		/** the D-Bus dispatch thread waits for a free slot up to the handler timeout, then drops the packet */
+		BLOCK
+	}
+	
 	/**
 	 * 
 	 * @param service: The service that contains the Characteristic
@@ -95,18 +163,173 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 		this.listener = listener;
 	}
 	
+	/**
+	 * Set the source of the value read by the centrals and sent with the notifications.
+	 * Without a value source the value is asked to the listener.
+	 * @param valueSource
+	 */
+	public void setValueSource(BleCharacteristicValueSource valueSource) {
+		this.valueSource = valueSource;
+	}
+	
+	/**
+	 * Set an asynchronous data source, used instead of the listener.
+	 * Its futures are awaited with the timeout of the application (see BleApplication.setHandlerTimeout()).
+	 * @param asyncListener
+	 */
+	public void setAsyncListener(BleCharacteristicAsyncListener asyncListener) {
+		this.asyncValueSource = (asyncListener != null) ? createAsyncValueSource(asyncListener) : null;
+		this.asyncListener = asyncListener;
+	}
+	
+	/**
+	 * The value source of the asynchronous listener: the slice is a view of the array of the future, as for the listener.
+	 */
+	private BleCharacteristicListenerValueSource createAsyncValueSource(final BleCharacteristicAsyncListener asyncListener) {
+		final Callable<CompletableFuture<byte[]>> getValue = new Callable<CompletableFuture<byte[]>>() {
+			@Override
+			public CompletableFuture<byte[]> call() {
+				return asyncListener.getValue();
+			}
+		};
+		return new BleCharacteristicListenerValueSource(new BleCharacteristicListener() {
+			@Override
+			public byte[] getValue() {
+				return await(getValue);
+			}
+
+			@Override
+			public void setValue(byte[] value) {
+			}
+		});
+	}
+	
+	/**
+	 * Set the listener of the write-without-response packets. With a batch listener the packets are not given
+	 * to the listener one by one on the D-Bus thread: they are queued for every device and delivered in batches
+	 * on the handler executor. The confirmed writes still go to the listener or to the asynchronous listener.
+	 * @param batchWriteListener
+	 */
+	public void setBatchWriteListener(BleBatchWriteListener batchWriteListener) {
+		this.writeQueues.setListener(batchWriteListener);
+	}
+	
+	/**
+	 * Set how many write-without-response packets are queued for every device, and what happens when
+	 * the queue is full. By default DEFAULT_WRITE_QUEUE_CAPACITY and DROP_OLDEST.
+	 * This must set before the first packet to take effect.
+	 * @param capacity
+	 * @param policy
+	 */
+	public void setWriteQueue(int capacity, WriteOverflowPolicy policy) {
+		this.writeQueues.setCapacity(capacity, policy);
+	}
+	
+	/**
+	 * @return the write-without-response packets received by the batch listener path
+	 */
+	public long getWritesReceived() {
+		return writeQueues.getReceived();
+	}
+	
+	/**
+	 * @return the write-without-response packets dropped because the queue of their device was full,
+	 * or because the device disconnected before they were delivered
+	 */
+	public long getWritesDropped() {
+		return writeQueues.getDropped();
+	}
+	
+	/**
+	 * @return the batches delivered to the batch listener
+	 */
+	public long getWriteBatches() {
+		return writeQueues.getBatches();
+	}
+	
+	/**
+	 * Set how long a long or reliable write waits for the next fragment after a full one (ATT_MTU - 5 bytes,
+	 * with the default ATT_MTU when bluez doesn't send the mtu option): then the value is considered complete
+	 * and given to the listener.
+	 * @param millis
+	 */
+	public void setWriteAssemblyTimeout(long millis) {
+		this.writeAssembler.setTimeout(millis);
+	}
+	
+	/**
+	 * bluez older than 5.51 doesn't send the type option, so the first fragment of a long write can't be told from a single
+	 * write unless bluez asked to prepare it (prepare-authorize): by default it is delivered at once as a single write.
+	 * Set true to put every write with offset 0 and without the type option in the assembler: a write as long as a full
+	 * fragment is then delivered only after the write assembly timeout, from another thread.
+	 * @param assemble
+	 */
+	public void setAssembleUntypedWrites(boolean assemble) {
+		this.assembleUntypedWrites = assemble;
+	}
+	
+	/**
+	 * Set how long the value captured at the beginning of a long read is kept for the following reads
+	 * of the same device. Set 0 to read the value again for every part of a long read.
+	 * @param millis
+	 */
+	public void setReadSnapshotTimeout(long millis) {
+		this.readSnapshots.setTimeout(millis);
+	}
+	
 	public void setFlags(List<CharacteristicFlag> flags) {
 		for (CharacteristicFlag characteristicFlag : flags) {
 			this.flags.add(characteristicFlag.toString());
 		}
+		invalidateProperties();
+	}
+	
+	/**
+	 * Add a descriptor. If the application is running the descriptor is exported at once.
+	 * @param descriptor
+	 */
+	public void addDescriptor(BleDescriptor descriptor) {
+		this.descriptors.add(descriptor);
+		invalidateProperties();
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		if(application != null) {
+			application.descriptorAdded(this, descriptor);
+		}
+	}
+	
+	/**
+	 * Remove a descriptor. If the application is running the descriptor is unexported at once.
+	 * @param descriptor
+	 */
+	public void removeDescriptor(BleDescriptor descriptor) {
+		if(!this.descriptors.remove(descriptor)) {
+			return;
+		}
+		invalidateProperties();
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		if(application != null) {
+			application.descriptorRemoved(this, descriptor);
+		}
+	}
+	
+	public List<BleDescriptor> getDescriptors() {
+		return descriptors;
 	}
 	
-	protected void export(DBusConnection dbusConnection) throws DBusException {
-		dbusConnection.exportObject(this.getPath().toString(), this);
+	protected void export(BleTransport transport) throws DBusException {
+		for (BleDescriptor descriptor : descriptors) {
+			descriptor.export(transport);
+		}
+		transport.exportObject(this.getPath().toString(), this);
+		this.transport = transport;
 	}
 
-	protected void unexport(DBusConnection dBusConnection) throws DBusException {
-		dBusConnection.unExportObject(this.getPath().toString());
+	protected void unexport(BleTransport transport) throws DBusException {
+		this.transport = null;
+		for (BleDescriptor descriptor : descriptors) {
+			descriptor.unexport(transport);
+		}
+		transport.unexportObject(this.getPath().toString());
 	}
 	
 	/**
@@ -114,10 +337,57 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 	 * @return
 	 */
 	public Path getPath() {
-		return new Path(path);
+		Path cachedPath = this.cachedPath;
+		// the path field is protected, so a subclass can replace it at any time
+		if(cachedPath == null || cachedPath.getPath() != path) {
+			cachedPath = new Path(path);
+			this.cachedPath = cachedPath;
+		}
+		return cachedPath;
 	}
 	
+	/**
+	 * Return the properties of the characteristic. The map is built once and cached until
+	 * invalidateProperties() is called, so it must not be modified.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
 	public Map<String, Map<String, Variant>> getProperties() {
+		Map<String, Map<String, Variant>> properties = this.properties;
+		if(properties == null) {
+			synchronized (this) {
+				if(this.properties == null) {
+					this.properties = buildProperties();
+				}
+				properties = this.properties;
+			}
+		}
+		return properties;
+	}
+	
+	/**
+	 * Drop the cached properties of the characteristic and of the application that contains it.
+	 * Subclasses that change the protected fields after the registration must call it.
+	 */
+	protected void invalidateProperties() {
+		synchronized (this) {
+			this.properties = null;
+		}
+		invalidateManagedObjects();
+	}
+	
+	/**
+	 * Called when one of the descriptors changes: the characteristic properties are still valid,
+	 * the application's managed objects are not.
+	 */
+	void invalidateManagedObjects() {
+		if(service != null) {
+			service.invalidateManagedObjects();
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private Map<String, Map<String, Variant>> buildProperties() {
 		Map<String, Variant> characteristicMap = new HashMap<String, Variant>();
 		
 		Variant<Path> servicePathProperty = new Variant<Path>(service.getPath());
@@ -129,35 +399,178 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 		Variant<String[]> flagsProperty = new Variant<String[]>(Utils.getStringArrayFromList(this.flags));
 		characteristicMap.put(CHARACTERISTIC_FLAGS_PROPERTY_KEY, flagsProperty);
 		
-		// TODO manage Descriptors
-		Variant<Path[]> descriptorsPatProperty = new Variant<Path[]>(new Path[0]);
+		Path[] descriptorsPath = new Path[descriptors.size()];
+		for (int i=0; i < descriptors.size(); i++) {
+			descriptorsPath[i] = descriptors.get(i).getPath();
+		}
+		Variant<Path[]> descriptorsPatProperty = new Variant<Path[]>(descriptorsPath);
 		characteristicMap.put(CHARACTERISTIC_DESCRIPTORS_PROPERTY_KEY, descriptorsPatProperty);
 		
 		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-		externalMap.put(GATT_CHARACTERISTIC_INTERFACE, characteristicMap);
+		externalMap.put(GATT_CHARACTERISTIC_INTERFACE, Collections.unmodifiableMap(characteristicMap));
 		
-		return externalMap;
+		return Collections.unmodifiableMap(externalMap);
 	}
 	
 	/**
 	 * Call this method to send a notification to a central.
+	 * The signal is sent over the transport of the BleApplication that exported this characteristic,
+	 * so nothing is sent while the application is not started.
+	 * Nothing is computed nor sent while no central is subscribed to the notifications.
 	 */
 	public void sendNotification() {
+		if(!canNotify()) {
+			return;
+		}
+		sendNotification(getValue());
+	}
+	
+	/**
+	 * Send a notification with the given value instead of asking it to the listener.
+	 * @param value
+	 */
+	public void sendNotification(byte[] value) {
+		if(!canNotify()) {
+			return;
+		}
+		sendFrame(value);
+	}
+	
+	/**
+	 * Send one of the notifications of BleApplication.notifyCharacteristics(), on the same path as sendNotification().
+	 * @param transport: the transport of the application, nothing is sent if the characteristic is not exported on it
+	 * @param value: the value, null to ask it to the listener or the value source
+	 * @return true if it was sent, a failure is counted in the notify errors
+	 */
+	boolean sendNotification(BleTransport transport, byte[] value) {
+		if(this.transport != transport || !canNotify()) {
+			return false;
+		}
+		if(value == null) {
+			try {
+				value = getValue();
+			} catch(RuntimeException e) {
+				getMetrics().notifyErrors.increment();
+				return false;
+			}
+		}
+		return sendFrame(value);
+	}
+	
+	boolean isExportedOn(BleTransport transport) {
+		return transport != null && this.transport == transport;
+	}
+	
+	BleService getService() {
+		return service;
+	}
+	
+	private boolean canNotify() {
+		return isNotifying.get() && transport != null;
+	}
+	
+	/**
+	 * Send one notification as a D-Bus signal.
+	 * @return false if it was not sent
+	 */
+	private boolean sendFrame(byte[] value) {
+		BleCharacteristicMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		BleTransport transport = this.transport;
+		if(transport == null || !isNotifying.get()) {
+			return false;
+		}
 		try {
-			DBusConnection dbusConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-			
-			Variant<byte[]> signalValueVariant = new Variant<byte[]>(listener.getValue());
-			Map<String, Variant> signalValue = new HashMap<String, Variant>();
-			signalValue.put(BleCharacteristic.CHARACTERISTIC_VALUE_PROPERTY_KEY, signalValueVariant);
-			
-			PropertiesChanged signal = new PropertiesChanged(this.getPath().toString(), GATT_CHARACTERISTIC_INTERFACE, signalValue, new ArrayList<String>());
-			dbusConnection.sendSignal(signal);
-			dbusConnection.disconnect();
+			transport.sendSignal(createNotification(value));
+			metrics.notify.record(System.nanoTime() - start);
+			return true;
 		} catch(Exception e) {
-			e.printStackTrace();
+			metrics.notifyErrors.increment();
+			return false;
 		}
 	}
 	
+	/**
+	 * Send a payload longer than one notification, split in frames that fit in the smallest ATT_MTU of the
+	 * connected devices. Every frame starts with a header of STREAM_HEADER_LENGTH bytes:
+	 * <ul>
+	 * <li>the sequence number of the frame, from 0 to 255 and then again from 0, so the central finds the lost frames</li>
+	 * <li>the flags: STREAM_FLAG_START on the first frame of the payload, STREAM_FLAG_END on the last one</li>
+	 * </ul>
+	 * The frames of one payload are not interleaved with the frames of another payload.
+	 * @param payload
+	 * @return the number of frames sent
+	 */
+	public int sendStream(byte[] payload) {
+		if(!canNotify()) {
+			return 0;
+		}
+		int chunkLength = getNotificationMtu() - NOTIFICATION_HEADER_LENGTH - STREAM_HEADER_LENGTH;
+		BleTransport transport = this.transport;
+		// dbus-java keeps a reference to the array until the message is written, then every frame has its own
+		boolean reuseFrame = transport != null && transport.isSignalWrittenOnSend();
+		int frames = 0;
+		synchronized (streamLock) {
+			if(reuseFrame && (streamFrame == null || streamFrame.length != STREAM_HEADER_LENGTH + chunkLength)) {
+				streamFrame = new byte[STREAM_HEADER_LENGTH + chunkLength];
+			}
+			int offset = 0;
+			do {
+				int length = Math.min(chunkLength, payload.length - offset);
+				// only the last frame can be shorter, the signal takes the whole array
+				byte[] frame = (reuseFrame && length == chunkLength) ? streamFrame : new byte[STREAM_HEADER_LENGTH + length];
+				int flags = (offset == 0) ? STREAM_FLAG_START : 0;
+				if(offset + length == payload.length) {
+					flags |= STREAM_FLAG_END;
+				}
+				frame[0] = (byte) streamSequence;
+				frame[1] = (byte) flags;
+				System.arraycopy(payload, offset, frame, STREAM_HEADER_LENGTH, length);
+				if(!sendFrame(frame)) {
+					return frames;
+				}
+				streamSequence = (streamSequence + 1) & 0xff;
+				frames++;
+				offset += length;
+			} while(offset < payload.length);
+		}
+		return frames;
+	}
+	
+	/**
+	 * The ATT_MTU used for the notifications: bluez sends them to every subscribed device,
+	 * so it is the smallest one of the connected devices.
+	 * @return
+	 */
+	public int getNotificationMtu() {
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		return (application != null) ? application.getDeviceRegistry().getMinMtu() : DEFAULT_ATT_MTU;
+	}
+	
+	/**
+	 * Build the PropertiesChanged signal of the value. dbus-java serializes it in the constructor,
+	 * so the returned signal is ready to be sent, but the value array is referenced until the signal is written.
+	 * The signature is given, so dbus-java doesn't look for it
+	 * by reflection as it does for a PropertiesChanged instance.
+	 * @param value
+	 * @return
+	 * @throws DBusException
+	 */
+	DBusSignal createNotification(byte[] value) throws DBusException {
+		Variant<byte[]> signalValueVariant = new Variant<byte[]>(value);
+		Map<String, Variant<byte[]>> signalValue = Collections.singletonMap(BleCharacteristic.CHARACTERISTIC_VALUE_PROPERTY_KEY, signalValueVariant);
+		return new DBusSignal(null, path, PROPERTIES_INTERFACE, PROPERTIES_CHANGED_SIGNAL, PROPERTIES_CHANGED_SIGNATURE,
+				GATT_CHARACTERISTIC_INTERFACE, signalValue, Collections.<String>emptyList());
+	}
+	
+	/**
+	 * Return the whole value, from the value source or the listener.
+	 * @return
+	 */
+	byte[] getValue() {
+		return getValue(0, Integer.MAX_VALUE);
+	}
+	
 	@Override
 	public boolean isRemote() {
 		return false;
@@ -165,42 +578,369 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 
 	/**
 	 * This method is called when the central request the Characteristic's value.
+	 * A value longer than one response is read with several calls with increasing offset: the value is
+	 * captured at the first one and the following ones of the same device are served from that snapshot.
+	 * Without the device option every call reads the value source.
 	 */
 	@Override
 	public byte[] ReadValue(Map<String, Variant> option) {
-		int offset = 0;
-		if(option.get("offset") != null) {
-			Variant<UInt16> voffset = option.get("offset");
-			offset = (voffset.getValue() != null) ? voffset.getValue().intValue() : offset;
+		BleCharacteristicMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		try {
+			byte[] value = readValue(option);
+			metrics.read.record(System.nanoTime() - start);
+			return value;
+		} catch(RuntimeException e) {
+			metrics.readErrors.increment();
+			throw e;
+		}
+	}
+	
+	private byte[] readValue(Map<String, ?> option) {
+		updateMtu(option);
+		int offset = getIntOption(option, OFFSET_OPTION_KEY);
+		// a read response carries at most ATT_MTU - 1 bytes, the central reads the rest with a greater offset
+		int mtu = getIntOption(option, MTU_OPTION_KEY);
+		int maxLength = (mtu > 0) ? mtu - 1 : Integer.MAX_VALUE;
+		if(!readSnapshots.isEnabled()) {
+			return getValue(offset, maxLength);
 		}
 		
-		byte[] valueBytes = listener.getValue();
-		byte[] slice = Arrays.copyOfRange(valueBytes, offset, valueBytes.length);
-		return slice;
+		String device = getDevice(option);
+		if(device.isEmpty()) {
+			// the reads of different centrals can't be told apart, so they don't share a snapshot
+			return getValue(offset, maxLength);
+		}
+		
+		if(offset == 0) {
+			ByteBuffer valueBuffer = getValueSource().getValue(0, Integer.MAX_VALUE);
+			byte[] value = new byte[valueBuffer.remaining()];
+			valueBuffer.get(value);
+			// without the mtu option bluez truncates the response, at least to the minimum ATT_MTU
+			int responseLength = (maxLength != Integer.MAX_VALUE) ? maxLength : DEFAULT_ATT_MTU - 1;
+			if(value.length > responseLength) {
+				readSnapshots.put(device, value);
+			} else {
+				readSnapshots.remove(device);
+			}
+			return (value.length <= maxLength) ? value : Arrays.copyOf(value, maxLength);
+		}
+		
+		byte[] snapshot = readSnapshots.get(device);
+		if(snapshot == null) {
+			return getValue(offset, maxLength);
+		}
+		if(offset > snapshot.length) {
+			throw new Error.InvalidOffset("Offset out of value [offset=" + offset + ", length=" + snapshot.length + "]");
+		}
+		int sliceLength = Math.min(maxLength, snapshot.length - offset);
+		if(maxLength != Integer.MAX_VALUE && offset + sliceLength == snapshot.length) {
+			// last part of the long read
+			readSnapshots.remove(device);
+		}
+		return Arrays.copyOfRange(snapshot, offset, offset + sliceLength);
+	}
+	
+	/**
+	 * Return the part of the value that starts at offset, copying only that part.
+	 */
+	private byte[] getValue(int offset, int maxLength) {
+		ByteBuffer slice = getValueSource().getValue(offset, maxLength);
+		if(slice.hasArray() && slice.arrayOffset() == 0 && slice.position() == 0 && slice.remaining() == slice.array().length) {
+			return slice.array();
+		}
+		byte[] sliceBytes = new byte[slice.remaining()];
+		slice.get(sliceBytes);
+		return sliceBytes;
+	}
+	
+	private BleCharacteristicValueSource getValueSource() {
+		if(valueSource != null) {
+			return valueSource;
+		}
+		BleCharacteristicListenerValueSource asyncValueSource = this.asyncValueSource;
+		if(asyncValueSource != null) {
+			return asyncValueSource;
+		}
+		// the listener field is protected, so a subclass can replace it at any time
+		BleCharacteristicListenerValueSource listenerValueSource = this.listenerValueSource;
+		if(listenerValueSource == null || listenerValueSource.getListener() != listener) {
+			listenerValueSource = new BleCharacteristicListenerValueSource(listener);
+			this.listenerValueSource = listenerValueSource;
+		}
+		return listenerValueSource;
 	}
 
 	/**
 	 * This method is called when the central want to write the Characteristic's value.
+	 * A write-without-response goes to the queue of its device when there is a batch listener.
+	 * The fragments of a long or reliable write are put together, the listener receives the complete value once.
 	 */
 	@Override
+	@SuppressWarnings("rawtypes")
 	public void WriteValue(byte[] value, Map<String, Variant> option) {
+		BleCharacteristicMetrics metrics = getMetrics();
+		long start = System.nanoTime();
+		try {
+			writeValue(value, option);
+			metrics.write.record(System.nanoTime() - start);
+		} catch(RuntimeException e) {
+			metrics.writeErrors.increment();
+			throw e;
+		}
+	}
+	
+	private void writeValue(byte[] value, Map<String, ?> option) {
+		updateMtu(option);
+		if(writeQueues.getListener() != null && isWriteCommand(option)) {
+			queueWrite(getDevice(option), value);
+			return;
+		}
+		String device = getDevice(option);
+		if(Boolean.TRUE.equals(getOptionValue(option, PREPARE_AUTHORIZE_OPTION_KEY))) {
+			// bluez only asks if the fragment can be queued, the value comes again with the execute write
+			writeAssembler.prepared(device);
+			return;
+		}
+		int offset = getIntOption(option, OFFSET_OPTION_KEY);
+		if(isAssembled(option, device, offset)) {
+			byte[] completeValue = writeAssembler.write(device, offset, value, getIntOption(option, MTU_OPTION_KEY));
+			if(completeValue != null) {
+				deliverWrite(completeValue);
+			}
+			return;
+		}
+		// a long write of the device still waiting for its timeout comes first
+		writeAssembler.complete(device);
+		deliverWrite(value);
+	}
+	
+	/**
+	 * Called by the application when a device disconnects: its queued packets and its partial long write are dropped.
+	 * @param device: the bluez object path of the device
+	 */
+	void deviceDisconnected(String device) {
+		writeQueues.remove(device);
+		writeAssembler.remove(device);
+	}
+	
+	private void queueWrite(String device, byte[] value) {
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		long blockMillis = (application != null) ? application.getHandlerTimeout() : BleApplication.DEFAULT_HANDLER_TIMEOUT_MILLIS;
+		writeQueues.offer(device, value, getHandlerExecutor(), blockMillis);
+	}
+	
+	/**
+	 * Count a write that failed where no error can be returned to bluez: a write-without-response,
+	 * a write delivered after its reply.
+	 */
+	void writeFailed() {
+		getMetrics().writeErrors.increment();
+	}
+	
+	/**
+	 * Give a complete value to the asynchronous listener or to the listener.
+	 * @param value
+	 */
+	void deliverWrite(final byte[] value) {
+		final BleCharacteristicAsyncListener asyncListener = this.asyncListener;
+		if(asyncListener != null) {
+			await(new Callable<CompletableFuture<Void>>() {
+				@Override
+				public CompletableFuture<Void> call() {
+					return asyncListener.setValue(value);
+				}
+			});
+			return;
+		}
 		listener.setValue(value);
 	}
+	
+	/**
+	 * The fragments of the executed prepared writes come with type reliable (bluez 5.51 or newer) and with an offset
+	 * after the first one. Without the type option the first fragment is recognized by the prepare-authorize
+	 * that came before it, otherwise it is a single write unless setAssembleUntypedWrites() is enabled.
+	 */
+	private boolean isAssembled(Map<String, ?> option, String device, int offset) {
+		if(offset > 0) {
+			return true;
+		}
+		Object type = getOptionValue(option, TYPE_OPTION_KEY);
+		if(type != null) {
+			return WRITE_RELIABLE_TYPE.equals(type);
+		}
+		return assembleUntypedWrites || writeAssembler.isPrepared(device);
+	}
+	
+	/**
+	 * Remember the ATT_MTU of the device, when bluez sends it.
+	 */
+	private void updateMtu(Map<String, ?> option) {
+		int mtu = getIntOption(option, MTU_OPTION_KEY);
+		if(mtu <= 0) {
+			return;
+		}
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		String device = getDevice(option);
+		if(application != null && !device.isEmpty()) {
+			application.updateMtu(device, mtu);
+		}
+	}
+	
+	/**
+	 * @return the value of a numeric option, 0 if it is missing
+	 */
+	private static int getIntOption(Map<String, ?> option, String key) {
+		Object value = getOptionValue(option, key);
+		return (value instanceof Number) ? ((Number) value).intValue() : 0;
+	}
+	
+	/**
+	 * bluez sends the type option since 5.51, the older versions are recognized by the flags.
+	 */
+	private boolean isWriteCommand(Map<String, ?> option) {
+		Object type = getOptionValue(option, TYPE_OPTION_KEY);
+		if(type != null) {
+			return WRITE_COMMAND_TYPE.equals(type);
+		}
+		return flags.contains(CharacteristicFlag.WRITE_WITHOUT_RESPONSE.toString()) && !flags.contains(CharacteristicFlag.WRITE.toString());
+	}
+	
+	/**
+	 * @return the bluez object path of the device, empty if the option is missing
+	 */
+	private static String getDevice(Map<String, ?> option) {
+		Object device = getOptionValue(option, DEVICE_OPTION_KEY);
+		return (device instanceof Path) ? ((Path) device).getPath() : "";
+	}
+	
+	/**
+	 * @return the value of the Variant of an option, null if it is missing
+	 */
+	private static Object getOptionValue(Map<String, ?> option, String key) {
+		Object variant = option.get(key);
+		return (variant instanceof Variant) ? ((Variant<?>) variant).getValue() : null;
+	}
+	
+	/**
+	 * The metrics of this characteristic in the metrics of its application, BleMetrics.NONE without an application.
+	 */
+	BleCharacteristicMetrics getMetrics() {
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		BleMetrics applicationMetrics = (application != null) ? application.getMetrics() : BleMetrics.NONE;
+		BleCharacteristicMetrics metrics = this.metrics;
+		// the uuid field is protected, so a subclass can replace it at any time
+		if(metrics == null || metrics.metrics != applicationMetrics || metrics.uuid != uuid) {
+			metrics = new BleCharacteristicMetrics(applicationMetrics, uuid);
+			this.metrics = metrics;
+		}
+		return metrics;
+	}
+	
+	Executor getHandlerExecutor() {
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		return (application != null) ? application.getHandlerExecutor() : DefaultHandlerExecutor.EXECUTOR;
+	}
+	
+	/**
+	 * Run the asynchronous listener call on the handler executor and wait its result,
+	 * translating the failures and the timeout in the errors bluez expects.
+	 */
+	private <T> T await(final Callable<CompletableFuture<T>> call) {
+		BleApplication application = (service != null) ? service.getApplication() : null;
+		Executor executor = getHandlerExecutor();
+		long timeoutMillis = (application != null) ? application.getHandlerTimeout() : BleApplication.DEFAULT_HANDLER_TIMEOUT_MILLIS;
+		
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						CompletableFuture<T> future = call.call();
+						future.whenComplete(new BiConsumer<T, Throwable>() {
+							@Override
+							public void accept(T value, Throwable throwable) {
+								if(throwable != null) {
+									result.completeExceptionally(throwable);
+								} else {
+									result.complete(value);
+								}
+							}
+						});
+					} catch(Throwable throwable) {
+						result.completeExceptionally(throwable);
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			throw new Error.Failed("Handler executor rejected the request [path=" + path + "]");
+		}
+		
+		try {
+			return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(TimeoutException e) {
+			throw new Error.Failed("Handler timeout [path=" + path + ", timeout=" + timeoutMillis + "ms]");
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error.Failed("Handler interrupted [path=" + path + "]");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			// CompletableFuture wraps the exceptions thrown by the dependent stages
+			while(cause instanceof CompletionException && cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if(cause instanceof DBusExecutionException) {
+				throw (DBusExecutionException) cause;
+			}
+			throw new Error.Failed("Handler failed [path=" + path + ", error=" + cause + "]");
+		}
+	}
+	
+	/**
+	 * Executor of the characteristics that don't belong to an application, created when it is used the first time.
+	 */
+	private static class DefaultHandlerExecutor {
+		private static final Executor EXECUTOR = BleExecutors.newHandlerExecutor();
+	}
 
 	@Override
 	public void StartNotify() {
-		if(isNotifying) {
+		if(!isNotifying.compareAndSet(false, true)) {
 			return;
 		}
-		this.isNotifying = true;
+		BleSubscriptionListener subscriptionListener = this.subscriptionListener;
+		if(subscriptionListener != null) {
+			subscriptionListener.notifyStarted(this);
+		}
 	}
 
 	@Override
 	public void StopNotify() {
-		if(!isNotifying) {
+		if(!isNotifying.compareAndSet(true, false)) {
 			return;
 		}
-		this.isNotifying = false;
+		BleSubscriptionListener subscriptionListener = this.subscriptionListener;
+		if(subscriptionListener != null) {
+			subscriptionListener.notifyStopped(this);
+		}
+	}
+	
+	/**
+	 * Return true if a central is subscribed to the notifications of this characteristic.
+	 * @return
+	 */
+	public boolean isNotifying() {
+		return isNotifying.get();
+	}
+	
+	/**
+	 * Set who is informed when the centrals subscribe and unsubscribe the notifications,
+	 * for example to stop sampling the value while nobody is subscribed.
+	 * @param subscriptionListener
+	 */
+	public void setSubscriptionListener(BleSubscriptionListener subscriptionListener) {
+		this.subscriptionListener = subscriptionListener;
 	}
 	
 	@Override
@@ -0,0 +1,14 @@
+package it.tangodev.ble;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface that describe an asynchronous data source of one Characteristic.
+ * The methods are called on the application's handler executor, not on the D-Bus dispatch thread,
+ * and the reply is sent to bluez when the returned future completes.
+ * A future completed with an org.bluez.Error exception returns that error to bluez.
+ */
+public interface BleCharacteristicAsyncListener {
+	public CompletableFuture<byte[]> getValue();
+	public CompletableFuture<Void> setValue(byte[] value);
+}
@@ -0,0 +1,32 @@
+package it.tangodev.ble;
+
+import java.nio.ByteBuffer;
+
+import org.bluez.Error;
+
+/**
+ * Adapter that serve the slices of the value returned by a BleCharacteristicListener.
+ * The slice is a view of the listener's array, it is not copied.
+ */
+public class BleCharacteristicListenerValueSource implements BleCharacteristicValueSource {
+
+	private final BleCharacteristicListener listener;
+
+	public BleCharacteristicListenerValueSource(BleCharacteristicListener listener) {
+		this.listener = listener;
+	}
+
+	public BleCharacteristicListener getListener() {
+		return listener;
+	}
+
+	@Override
+	public ByteBuffer getValue(int offset, int maxLength) {
+		byte[] value = listener.getValue();
+		if(offset > value.length) {
+			throw new Error.InvalidOffset("Offset out of value [offset=" + offset + ", length=" + value.length + "]");
+		}
+		return ByteBuffer.wrap(value, offset, Math.min(maxLength, value.length - offset));
+	}
+
+}
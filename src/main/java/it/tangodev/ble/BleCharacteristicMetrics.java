@@ -0,0 +1,33 @@
+package it.tangodev.ble;
+
+/**
+ * The metrics of one characteristic, looked up once for the metrics of its application and its UUID.
+ */
+class BleCharacteristicMetrics {
+
+	final BleMetrics metrics;
+	final String uuid;
+	final BleMetrics.Timer read;
+	final BleMetrics.Timer write;
+	final BleMetrics.Timer notify;
+	final BleMetrics.Counter readErrors;
+	final BleMetrics.Counter writeErrors;
+	final BleMetrics.Counter notifyErrors;
+
+	BleCharacteristicMetrics(BleMetrics metrics, String uuid) {
+		this.metrics = metrics;
+		this.uuid = uuid;
+		this.read = metrics.timer(BleMetricsRegistry.CHARACTERISTIC_READ, BleMetricsRegistry.CHARACTERISTIC_LABEL, uuid);
+		this.write = metrics.timer(BleMetricsRegistry.CHARACTERISTIC_WRITE, BleMetricsRegistry.CHARACTERISTIC_LABEL, uuid);
+		this.notify = metrics.timer(BleMetricsRegistry.CHARACTERISTIC_NOTIFY, BleMetricsRegistry.CHARACTERISTIC_LABEL, uuid);
+		this.readErrors = getErrors("read");
+		this.writeErrors = getErrors("write");
+		this.notifyErrors = getErrors("notify");
+	}
+
+	private BleMetrics.Counter getErrors(String operation) {
+		return metrics.counter(BleMetricsRegistry.CHARACTERISTIC_ERRORS, BleMetricsRegistry.CHARACTERISTIC_LABEL, uuid,
+				BleMetricsRegistry.OPERATION_LABEL, operation);
+	}
+
+}
@@ -0,0 +1,21 @@
+package it.tangodev.ble;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface that serve the value of one Characteristic by slices.
+ * The reads with an offset ask only the part of the value they return, so a value read in MTU-sized
+ * chunks is not built and copied again for every chunk.
+ * @see BleCharacteristicListenerValueSource for the BleCharacteristicListener that provide the whole value
+ */
+public interface BleCharacteristicValueSource {
+	/**
+	 * Return the part of the value that starts at offset and is at most maxLength bytes long.
+	 * The slice is between the position and the limit of the returned buffer. The caller consumes the buffer,
+	 * so return a view (for example ByteBuffer.duplicate()) of a buffer that is shared or pooled.
+	 * @param offset
+	 * @param maxLength
+	 * @return
+	 */
+	public ByteBuffer getValue(int offset, int maxLength);
+}
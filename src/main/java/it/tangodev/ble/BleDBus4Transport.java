@@ -0,0 +1,656 @@
+package it.tangodev.ble;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusMemberName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Marshalling;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.UInt64;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+import it.tangodev.ble.dbus4.GattCharacteristic1;
+import it.tangodev.ble.dbus4.GattDescriptor1;
+import it.tangodev.ble.dbus4.GattService1;
+import it.tangodev.ble.dbus4.LEAdvertisement1;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.DBusPath;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.connections.impl.DBusConnection;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.connections.impl.DBusConnectionBuilder;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.interfaces.ObjectManager;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.interfaces.Properties;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.messages.Message;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.messages.MethodCall;
+
+/**
+ * The transport over dbus-java 4 and its unix domain socket of the JDK (Java 16 or better), without the native
+ * library of dbus-java 2.7. dbus-java 4 has the packages of dbus-java 2.7, the dbus-java4 project relocates it
+ * in it.tangodev.ble.shaded. The exported objects, the remote interfaces and the signal classes are the ones of
+ * dbus-java 2.7, as on BleDBusTransport, and their values are converted: an object is exported behind a proxy of the
+ * dbus-java 4 interfaces in it.tangodev.ble.dbus4, a remote method is sent as a MethodCall with the signature of
+ * the method, and a signal is subscribed with the class dbus-java 4 has for it.
+ * The errors of the exported objects are replied with the name of their type, the bluez ones are the classes
+ * of the org.bluez.Error package of the dbus-java4 project; any other name is replied as org.bluez.Error.Failed.
+ * The signals given to the handlers have no source.
+ */
+public class BleDBus4Transport implements BleTransport {
+
+	public static final int DEFAULT_DISPATCH_THREADS = 4;
+	private static final String BLUEZ_ERROR_PACKAGE = "org.bluez.Error.";
+	private static final String FAILED_ERROR = "org.bluez.Error.Failed";
+	// the dbus-java 4 interfaces of the interfaces the library exports, GattApplication1 is the ObjectManager of bluez
+	private static final Map<Class<?>, Class<?>> exportedInterfaces = createExportedInterfaces();
+	// the dbus-java 4 classes of the signals the library subscribes, by interface and member
+	private static final Map<String, Class<?>> signalTypes = createSignalTypes();
+
+	private final DBusConnection connection;
+	private final ConcurrentMap<String, DBusInterface> exportedObjects = new ConcurrentHashMap<String, DBusInterface>();
+	private final Map<DBusInterface, String> exportedPaths = new ConcurrentHashMap<DBusInterface, String>();
+	private final ConcurrentMap<Method, RemoteMethod> remoteMethods = new ConcurrentHashMap<Method, RemoteMethod>();
+	private final List<SignalHandler<?>> handlers = new CopyOnWriteArrayList<SignalHandler<?>>();
+
+	private BleDBus4Transport(DBusConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * @return true if the JDK opens unix domain sockets, Java 16 or better
+	 */
+	public static boolean isSupported() {
+		try {
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Open a connection with the default number of dispatch threads.
+	 * @param busAddress: the address of the bus, null for the system bus
+	 * @return
+	 * @throws DBusException
+	 */
+	public static BleDBus4Transport connect(String busAddress) throws DBusException {
+		return connect(busAddress, DEFAULT_DISPATCH_THREADS);
+	}
+
+	/**
+	 * Open a connection of its own, not shared with the other connections to the same bus.
+	 * The signals are given to the handlers on one thread, in the order they arrive.
+	 * @param busAddress: the address of the bus, null for the system bus, a unix: address
+	 * @param dispatchThreads: the threads that run the method calls
+	 * @return
+	 * @throws DBusException
+	 */
+	public static BleDBus4Transport connect(String busAddress, int dispatchThreads) throws DBusException {
+		if(dispatchThreads < 1) {
+			throw new IllegalArgumentException("Dispatch threads must be at least 1 [threads=" + dispatchThreads + "]");
+		}
+		if(!isSupported()) {
+			throw new DBusException("Unix domain sockets need Java 16 or better");
+		}
+		DBusConnectionBuilder builder = (busAddress == null) ? DBusConnectionBuilder.forSystemBus() : DBusConnectionBuilder.forAddress(busAddress);
+		try {
+			DBusConnection connection = builder.withShared(false).receivingThreadConfig()
+					.withMethodCallThreadCount(dispatchThreads).withSignalThreadCount(1).connectionConfig().build();
+			return new BleDBus4Transport(connection);
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			throw new DBusException("Connection failed [address=" + busAddress + ", error=" + e.getMessage() + "]");
+		}
+	}
+
+	/**
+	 * @return the unique name given by the bus
+	 */
+	public String getUniqueName() {
+		return connection.getUniqueName();
+	}
+
+	@Override
+	public void exportObject(String path, DBusInterface object) throws DBusException {
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> exported : getInterfaces(object.getClass())) {
+			Class<?> mirror = exportedInterfaces.get(exported);
+			if(mirror == null) {
+				throw new DBusException("Interface not exported by dbus-java 4 [interface=" + exported.getName() + ", path=" + path + "]");
+			}
+			interfaces.add(mirror);
+		}
+		if(exportedObjects.putIfAbsent(path, object) != null) {
+			throw new DBusException("Object already exported [path=" + path + "]");
+		}
+		Object proxy = Proxy.newProxyInstance(BleDBus4Transport.class.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]),
+				new ExportedObject(path, object));
+		try {
+			connection.exportObject(path, (it.tangodev.ble.shaded.org.freedesktop.dbus.interfaces.DBusInterface) proxy);
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			exportedObjects.remove(path);
+			throw new DBusException("Export failed [path=" + path + ", error=" + e.getMessage() + "]");
+		}
+		exportedPaths.put(object, path);
+	}
+
+	@Override
+	public void unexportObject(String path) {
+		DBusInterface object = exportedObjects.remove(path);
+		if(object != null) {
+			exportedPaths.remove(object);
+			connection.unExportObject(path);
+		}
+	}
+
+	@Override
+	public void sendSignal(DBusSignal signal) {
+		try {
+			Object[] values = signal.getParameters();
+			Object[] converted = new Object[values.length];
+			for (int i = 0; i < values.length; i++) {
+				converted[i] = toDBus4(values[i]);
+			}
+			connection.sendMessage(new it.tangodev.ble.shaded.org.freedesktop.dbus.messages.DBusSignal(null, signal.getPath(),
+					signal.getInterface(), signal.getName(), signal.getSig(), converted));
+		} catch (DBusException e) {
+			throw new DBusExecutionException(e.getMessage());
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			throw new DBusExecutionException(e.getMessage());
+		}
+	}
+
+	/**
+	 * dbus-java 4 serializes the values when the signal is built, before sendSignal() queues it.
+	 */
+	@Override
+	public boolean isSignalWrittenOnSend() {
+		return true;
+	}
+
+	@Override
+	public <I extends DBusInterface> I getRemoteObject(String busName, String path, Class<I> type) throws DBusException {
+		Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new RemoteObject(busName, path));
+		return type.cast(proxy);
+	}
+
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException {
+		addSigHandler(type, null, handler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException {
+		removeSigHandler(type, null, handler);
+	}
+
+	/**
+	 * Every subscription is a handler of dbus-java 4, with its own match rule.
+	 */
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException {
+		SignalHandler<T> signalHandler = new SignalHandler<T>(type, source, handler);
+		try {
+			if(source == null) {
+				connection.addSigHandler(signalHandler.signalType, signalHandler);
+			} else {
+				connection.addSigHandler(signalHandler.signalType, source, signalHandler);
+			}
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			throw new DBusException("Subscription failed [type=" + type.getName() + ", source=" + source + ", error=" + e.getMessage() + "]");
+		}
+		handlers.add(signalHandler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException {
+		for (SignalHandler<?> signalHandler : handlers) {
+			if(signalHandler.type == type && signalHandler.handler == handler
+					&& (source == null ? signalHandler.source == null : source.equals(signalHandler.source))) {
+				if(handlers.remove(signalHandler)) {
+					removeSigHandler(signalHandler);
+				}
+				return;
+			}
+		}
+	}
+
+	private void removeSigHandler(SignalHandler<?> signalHandler) throws DBusException {
+		try {
+			if(signalHandler.source == null) {
+				connection.removeSigHandler(signalHandler.signalType, signalHandler);
+			} else {
+				connection.removeSigHandler(signalHandler.signalType, signalHandler.source, signalHandler);
+			}
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			throw new DBusException("Unsubscription failed [type=" + signalHandler.type.getName() + ", error=" + e.getMessage() + "]");
+		}
+	}
+
+	/**
+	 * Close the connection, the calls waiting for a reply fail.
+	 */
+	@Override
+	public void disconnect() {
+		connection.disconnect();
+		exportedObjects.clear();
+		exportedPaths.clear();
+		handlers.clear();
+	}
+
+	private static Set<Class<?>> getInterfaces(Class<?> type) {
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				if(DBusInterface.class.isAssignableFrom(i)) {
+					interfaces.add(i);
+				}
+			}
+		}
+		return interfaces;
+	}
+
+	private static String getInterfaceName(Class<?> type) {
+		DBusInterfaceName name = type.getAnnotation(DBusInterfaceName.class);
+		return (name != null) ? name.value() : type.getName().replace('$', '.');
+	}
+
+	private static String getMemberName(Method method) {
+		DBusMemberName name = method.getAnnotation(DBusMemberName.class);
+		return (name != null) ? name.value() : method.getName();
+	}
+
+	private static String getSignalKey(Class<?> type) {
+		Class<?> enclosing = type.getEnclosingClass();
+		if(enclosing == null) {
+			throw new IllegalArgumentException("A signal class must be declared in its interface [type=" + type.getName() + "]");
+		}
+		DBusMemberName member = type.getAnnotation(DBusMemberName.class);
+		return getInterfaceName(enclosing) + "." + ((member != null) ? member.value() : type.getSimpleName());
+	}
+
+	/**
+	 * The value of dbus-java 2.7 as dbus-java 4 marshals it: its own variants, paths and unsigned numbers,
+	 * an exported object as its path. The arrays of the other values are sent as they are.
+	 */
+	private Object toDBus4(Object value) {
+		if(value instanceof Variant) {
+			Variant<?> variant = (Variant<?>) value;
+			return new it.tangodev.ble.shaded.org.freedesktop.dbus.types.Variant<Object>(toDBus4(variant.getValue()), variant.getSig());
+		}
+		if(value instanceof Path) {
+			return new DBusPath(((Path) value).getPath());
+		}
+		if(value instanceof DBusInterface) {
+			return new DBusPath(getPath((DBusInterface) value));
+		}
+		if(value instanceof UInt16) {
+			return new it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt16(((UInt16) value).intValue());
+		}
+		if(value instanceof UInt32) {
+			return new it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt32(((UInt32) value).longValue());
+		}
+		if(value instanceof UInt64) {
+			return new it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt64(((UInt64) value).value());
+		}
+		if(value instanceof Map) {
+			Map<Object, Object> converted = new LinkedHashMap<Object, Object>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				converted.put(toDBus4(entry.getKey()), toDBus4(entry.getValue()));
+			}
+			return converted;
+		}
+		if(value instanceof List) {
+			List<Object> converted = new ArrayList<Object>(((List<?>) value).size());
+			for (Object element : (List<?>) value) {
+				converted.add(toDBus4(element));
+			}
+			return converted;
+		}
+		if(value instanceof Object[] && !(value instanceof String[])) {
+			return toDBus4(Arrays.asList((Object[]) value));
+		}
+		return value;
+	}
+
+	private String getPath(DBusInterface object) {
+		if(Proxy.isProxyClass(object.getClass()) && Proxy.getInvocationHandler(object) instanceof RemoteObject) {
+			return ((RemoteObject) Proxy.getInvocationHandler(object)).path;
+		}
+		String path = exportedPaths.get(object);
+		if(path == null) {
+			throw new DBusExecutionException("Object not exported [object=" + object + "]");
+		}
+		return path;
+	}
+
+	/**
+	 * The value of dbus-java 4 with the types of dbus-java 2.7.
+	 */
+	private static Object toDBus27(Object value) {
+		if(value instanceof it.tangodev.ble.shaded.org.freedesktop.dbus.types.Variant) {
+			it.tangodev.ble.shaded.org.freedesktop.dbus.types.Variant<?> variant = (it.tangodev.ble.shaded.org.freedesktop.dbus.types.Variant<?>) value;
+			return new Variant<Object>(toDBus27(variant.getValue()), variant.getSig());
+		}
+		if(value instanceof DBusPath) {
+			return new Path(((DBusPath) value).getPath());
+		}
+		if(value instanceof it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt16) {
+			return new UInt16(((Number) value).intValue());
+		}
+		if(value instanceof it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt32) {
+			return new UInt32(((Number) value).longValue());
+		}
+		if(value instanceof it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt64) {
+			return new UInt64(((it.tangodev.ble.shaded.org.freedesktop.dbus.types.UInt64) value).value());
+		}
+		if(value instanceof Map) {
+			Map<Object, Object> converted = new LinkedHashMap<Object, Object>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				converted.put(toDBus27(entry.getKey()), toDBus27(entry.getValue()));
+			}
+			return converted;
+		}
+		if(value instanceof List) {
+			List<Object> converted = new ArrayList<Object>(((List<?>) value).size());
+			for (Object element : (List<?>) value) {
+				converted.add(toDBus27(element));
+			}
+			return converted;
+		}
+		if(value instanceof Object[] && !(value instanceof String[])) {
+			return toDBus27(Arrays.asList((Object[]) value));
+		}
+		return value;
+	}
+
+	/**
+	 * A list where the Java type is an array, or the other way around.
+	 */
+	private static Object adapt(Object value, Class<?> type) {
+		if(type.isArray() && value instanceof List) {
+			List<?> list = (List<?>) value;
+			Object array = java.lang.reflect.Array.newInstance(type.getComponentType(), list.size());
+			for (int i = 0; i < list.size(); i++) {
+				java.lang.reflect.Array.set(array, i, list.get(i));
+			}
+			return array;
+		}
+		if(List.class.isAssignableFrom(type) && value instanceof Object[]) {
+			return new ArrayList<Object>(Arrays.asList((Object[]) value));
+		}
+		return value;
+	}
+
+	/**
+	 * The exception replied for an error of an exported object: the class of dbus-java 4 named as its type,
+	 * org.bluez.Error.Failed for the names that are not bluez errors.
+	 * The name is only loaded in the org.bluez.Error package of the dbus-java4 project.
+	 */
+	static RuntimeException createReplyError(Throwable cause) {
+		String errorName = (cause instanceof DBusExecutionException) ? ((DBusExecutionException) cause).getType().replace('$', '.') : FAILED_ERROR;
+		String errorMessage = (cause.getMessage() != null) ? cause.getMessage() : cause.toString();
+		if(!errorName.startsWith(BLUEZ_ERROR_PACKAGE)) {
+			errorName = FAILED_ERROR;
+		}
+		try {
+			return createReplyError(errorName, errorMessage);
+		} catch (Exception e) {
+			try {
+				return createReplyError(FAILED_ERROR, errorMessage);
+			} catch (Exception failed) {
+				return new it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusExecutionException(errorMessage);
+			}
+		}
+	}
+
+	private static RuntimeException createReplyError(String errorName, String errorMessage) throws Exception {
+		Class<? extends RuntimeException> type = Class.forName(errorName)
+				.asSubclass(it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusExecutionException.class);
+		return type.getConstructor(String.class).newInstance(errorMessage);
+	}
+
+	/**
+	 * The exception of an error reply, a DBusExecutionException with the name of the error as type.
+	 */
+	private static DBusExecutionException createError(Message reply) {
+		String errorName = (String) reply.getHeader(Message.HeaderField.ERROR_NAME);
+		String errorMessage = errorName;
+		try {
+			Object[] values = reply.getParameters();
+			if(values != null && values.length > 0 && values[0] instanceof String) {
+				errorMessage = (String) values[0];
+			}
+		} catch (it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusException e) {
+			// the name only
+		}
+		DBusExecutionException error = new DBusExecutionException(errorMessage);
+		error.setType(errorName);
+		return error;
+	}
+
+	private static Map<Class<?>, Class<?>> createExportedInterfaces() {
+		Map<Class<?>, Class<?>> interfaces = new HashMap<Class<?>, Class<?>>();
+		interfaces.put(org.bluez.GattService1.class, GattService1.class);
+		interfaces.put(org.bluez.GattCharacteristic1.class, GattCharacteristic1.class);
+		interfaces.put(org.bluez.GattDescriptor1.class, GattDescriptor1.class);
+		interfaces.put(org.bluez.LEAdvertisement1.class, LEAdvertisement1.class);
+		interfaces.put(org.bluez.GattApplication1.class, ObjectManager.class);
+		interfaces.put(org.dbus.ObjectManager.class, ObjectManager.class);
+		interfaces.put(DBus.Properties.class, Properties.class);
+		return Collections.unmodifiableMap(interfaces);
+	}
+
+	private static Map<String, Class<?>> createSignalTypes() {
+		Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+		types.put("org.freedesktop.DBus.ObjectManager.InterfacesAdded", ObjectManager.InterfacesAdded.class);
+		types.put("org.freedesktop.DBus.ObjectManager.InterfacesRemoved", ObjectManager.InterfacesRemoved.class);
+		types.put("org.freedesktop.DBus.Properties.PropertiesChanged", Properties.PropertiesChanged.class);
+		types.put("org.freedesktop.DBus.NameOwnerChanged", it.tangodev.ble.shaded.org.freedesktop.dbus.interfaces.DBus.NameOwnerChanged.class);
+		return Collections.unmodifiableMap(types);
+	}
+
+	/**
+	 * An exported object behind the interfaces of dbus-java 4: a call goes to the method with the same name
+	 * and the same number of parameters of its interfaces of dbus-java 2.7.
+	 */
+	private class ExportedObject implements InvocationHandler {
+		private final String path;
+		private final DBusInterface object;
+		private final ConcurrentMap<Method, Method> methods = new ConcurrentHashMap<Method, Method>();
+
+		ExportedObject(String path, DBusInterface object) {
+			this.path = path;
+			this.object = object;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+			if(method.getDeclaringClass() == Object.class) {
+				if("equals".equals(method.getName())) {
+					return proxy == arguments[0];
+				}
+				if("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				return "Exported [path=" + path + ", object=" + object + "]";
+			}
+			int argumentCount = (arguments == null) ? 0 : arguments.length;
+			if(argumentCount == 0 && "getObjectPath".equals(method.getName())) {
+				return path;
+			}
+			if(argumentCount == 0 && "isRemote".equals(method.getName())) {
+				return false;
+			}
+			Method target = methods.get(method);
+			if(target == null) {
+				target = findMethod(method.getName(), argumentCount);
+				methods.putIfAbsent(method, target);
+			}
+			Class<?>[] parameterTypes = target.getParameterTypes();
+			Object[] converted = new Object[argumentCount];
+			for (int i = 0; i < argumentCount; i++) {
+				converted[i] = adapt(toDBus27(arguments[i]), parameterTypes[i]);
+			}
+			try {
+				return toDBus4(target.invoke(object, converted));
+			} catch (InvocationTargetException e) {
+				throw createReplyError(e.getCause());
+			}
+		}
+
+		private Method findMethod(String name, int argumentCount) {
+			for (Class<?> exported : getInterfaces(object.getClass())) {
+				for (Method method : exported.getMethods()) {
+					if(method.getDeclaringClass() != DBusInterface.class && method.getParameterTypes().length == argumentCount
+							&& name.equals(method.getName())) {
+						return method;
+					}
+				}
+			}
+			throw new it.tangodev.ble.shaded.org.freedesktop.dbus.exceptions.DBusExecutionException("No method [path=" + path + ", name=" + name + "]");
+		}
+	}
+
+	/**
+	 * A method of a remote interface, its names and signature computed once.
+	 */
+	private static class RemoteMethod {
+		private final String iface;
+		private final String member;
+		private final String signature;
+
+		RemoteMethod(Method method) throws DBusException {
+			this.iface = getInterfaceName(method.getDeclaringClass());
+			this.member = getMemberName(method);
+			this.signature = Marshalling.getDBusType(method.getGenericParameterTypes());
+		}
+	}
+
+	private class RemoteObject implements InvocationHandler {
+		private final String busName;
+		private final String path;
+
+		RemoteObject(String busName, String path) {
+			this.busName = busName;
+			this.path = path;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+			if(method.getDeclaringClass() == Object.class) {
+				if("equals".equals(method.getName())) {
+					return proxy == arguments[0];
+				}
+				if("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				}
+				return "Remote [bus=" + busName + ", path=" + path + "]";
+			}
+			if("isRemote".equals(method.getName()) && method.getParameterTypes().length == 0) {
+				return true;
+			}
+			RemoteMethod remote = remoteMethods.get(method);
+			if(remote == null) {
+				remote = new RemoteMethod(method);
+				remoteMethods.putIfAbsent(method, remote);
+			}
+			Object[] converted = new Object[(arguments == null) ? 0 : arguments.length];
+			for (int i = 0; i < converted.length; i++) {
+				converted[i] = toDBus4(arguments[i]);
+			}
+			MethodCall call = new MethodCall(busName, path, remote.iface, remote.member, (byte) 0,
+					remote.signature.isEmpty() ? null : remote.signature, converted);
+			connection.sendMessage(call);
+			Message reply = call.getReply();
+			if(reply == null) {
+				throw new DBus.Error.NoReply("No reply [destination=" + busName + ", path=" + path + ", member=" + remote.member + "]");
+			}
+			if(reply instanceof it.tangodev.ble.shaded.org.freedesktop.dbus.errors.Error) {
+				throw createError(reply);
+			}
+			Object[] values = reply.getParameters();
+			if(values == null || values.length == 0) {
+				return null;
+			}
+			return adapt(toDBus27(values[0]), method.getReturnType());
+		}
+	}
+
+	/**
+	 * A subscribed handler, given to dbus-java 4 for the signal class it has for the same interface and member.
+	 * The signal is built again with the constructor of the class of dbus-java 2.7, the object path followed by the values.
+	 */
+	private static class SignalHandler<T extends DBusSignal>
+			implements it.tangodev.ble.shaded.org.freedesktop.dbus.interfaces.DBusSigHandler<it.tangodev.ble.shaded.org.freedesktop.dbus.messages.DBusSignal> {
+		private final Class<T> type;
+		private final String source;
+		private final DBusSigHandler<T> handler;
+		private final Class<it.tangodev.ble.shaded.org.freedesktop.dbus.messages.DBusSignal> signalType;
+
+		@SuppressWarnings("unchecked")
+		SignalHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException {
+			this.type = type;
+			this.source = source;
+			this.handler = handler;
+			this.signalType = (Class<it.tangodev.ble.shaded.org.freedesktop.dbus.messages.DBusSignal>) signalTypes.get(getSignalKey(type));
+			if(signalType == null) {
+				throw new DBusException("Signal not subscribed by dbus-java 4 [type=" + type.getName() + "]");
+			}
+		}
+
+		@Override
+		public void handle(it.tangodev.ble.shaded.org.freedesktop.dbus.messages.DBusSignal signal) {
+			T converted;
+			try {
+				converted = createSignal(signal.getPath(), signal.getParameters());
+			} catch (Exception e) {
+				BleLog.warning("Signal not converted [type=" + type.getName() + ", path=" + signal.getPath() + "]", e);
+				return;
+			}
+			try {
+				handler.handle(converted);
+			} catch (Exception e) {
+				// as on dbus-java, a failing handler doesn't stop the others
+				BleLog.warning("Signal handler failed [signal=" + converted.getName() + ", path=" + signal.getPath() + "]", e);
+			}
+		}
+
+		private T createSignal(String path, Object[] values) throws Exception {
+			for (Constructor<?> constructor : type.getConstructors()) {
+				Class<?>[] parameters = constructor.getParameterTypes();
+				if(parameters.length != values.length + 1 || parameters[0] != String.class) {
+					continue;
+				}
+				Object[] arguments = new Object[parameters.length];
+				arguments[0] = path;
+				for (int i = 0; i < values.length; i++) {
+					arguments[i + 1] = adapt(toDBus27(values[i]), parameters[i + 1]);
+				}
+				return type.cast(constructor.newInstance(arguments));
+			}
+			throw new DBusException("No constructor for the signal [type=" + type.getName() + ", values=" + values.length + "]");
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * The transport over a dbus-java connection, the one the application uses unless it is given another one.
+ */
+public class BleDBusTransport implements BleTransport {
+
+	private final DBusConnection dbusConnection;
+
+	public BleDBusTransport(DBusConnection dbusConnection) {
+		this.dbusConnection = dbusConnection;
+	}
+
+	/**
+	 * Open a connection.
+	 * @param busAddress: the address of the bus, null for the system bus
+	 * @return
+	 * @throws DBusException
+	 */
+	public static BleDBusTransport connect(String busAddress) throws DBusException {
+		if(busAddress == null) {
+			return new BleDBusTransport(DBusConnection.getConnection(DBusConnection.SYSTEM));
+		}
+		return new BleDBusTransport(DBusConnection.getConnection(busAddress));
+	}
+
+	public DBusConnection getConnection() {
+		return dbusConnection;
+	}
+
+	@Override
+	public void exportObject(String path, DBusInterface object) throws DBusException {
+		dbusConnection.exportObject(path, object);
+	}
+
+	@Override
+	public void unexportObject(String path) {
+		dbusConnection.unExportObject(path);
+	}
+
+	@Override
+	public void sendSignal(DBusSignal signal) {
+		dbusConnection.sendSignal(signal);
+	}
+
+	/**
+	 * dbus-java writes the signals on its sender thread, the value arrays are referenced until then.
+	 */
+	@Override
+	public boolean isSignalWrittenOnSend() {
+		return false;
+	}
+
+	@Override
+	public <I extends DBusInterface> I getRemoteObject(String busName, String path, Class<I> type) throws DBusException {
+		return dbusConnection.getRemoteObject(busName, path, type);
+	}
+
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException {
+		dbusConnection.addSigHandler(type, handler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException {
+		dbusConnection.removeSigHandler(type, handler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException {
+		dbusConnection.addSigHandler(type, source, handler);
+	}
+
+	/**
+	 * dbus-java sends RemoveMatch holding the lock its reader thread takes to dispatch every signal,
+	 * so the connection stalls if a signal arrives before the reply: don't call it while the signals flow.
+	 */
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException {
+		dbusConnection.removeSigHandler(type, source, handler);
+	}
+
+	@Override
+	public void disconnect() {
+		dbusConnection.disconnect();
+	}
+
+}
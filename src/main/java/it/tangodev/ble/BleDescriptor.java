@@ -0,0 +1,261 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.Utils;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bluez.Error;
+import org.bluez.GattDescriptor1;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * BleDescriptor represent a descriptor of one Characteristic, with a value known in advance
+ * (for example the Characteristic User Description). The value is served without calling a listener.
+ *
+ * The Client Characteristic Configuration descriptor (0x2902) is managed by bluez for the characteristics
+ * with the notify flag, so it must not be added.
+ */
+public class BleDescriptor implements GattDescriptor1, Properties {
+
+	public static final String USER_DESCRIPTION_UUID = "00002901-0000-1000-8000-00805f9b34fb";
+	public static final String CLIENT_CONFIGURATION_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+	public static final String PRESENTATION_FORMAT_UUID = "00002904-0000-1000-8000-00805f9b34fb";
+
+	private static final String GATT_DESCRIPTOR_INTERFACE = "org.bluez.GattDescriptor1";
+	private static final String DESCRIPTOR_CHARACTERISTIC_PROPERTY_KEY = "Characteristic";
+	private static final String DESCRIPTOR_UUID_PROPERTY_KEY = "UUID";
+	private static final String DESCRIPTOR_FLAGS_PROPERTY_KEY = "Flags";
+	private static final String DESCRIPTOR_VALUE_PROPERTY_KEY = "Value";
+	private static final String OFFSET_OPTION_KEY = "offset";
+
+	private final BleCharacteristic characteristic;
+	private final String uuid;
+	private final List<String> flags = new ArrayList<String>();
+	private final String path;
+	private final Path objectPath;
+	private volatile byte[] value;
+	// built on demand and dropped when the value changes
+	@SuppressWarnings("rawtypes")
+	private volatile Map<String, Map<String, Variant>> properties = null;
+
+	/**
+	 * A flag indicate the operation allowed on a single descriptor.
+	 */
+	public enum DescriptorFlag {
+		READ("read"),
+		WRITE("write"),
+		ENCRYPT_READ("encrypt-read"),
+		ENCRYPT_WRITE("encrypt-write"),
+		ENCRYPT_AUTHENTICATED_READ("encrypt-authenticated-read"),
+		ENCRYPT_AUTHENTICATED_WRITE("encrypt-authenticated-write");
+
+		private String flag;
+
+		DescriptorFlag(String flag) {
+			this.flag = flag;
+		}
+
+		@Override
+		public String toString() {
+			return this.flag;
+		}
+	}
+
+	/**
+	 * 
+	 * @param path: The absolute path, APPLICATION/SERVICE/CHARACTERISTIC/DESCRIPTOR
+	 * @param characteristic: The characteristic that contains the descriptor
+	 * @param flags
+	 * @param uuid
+	 * @param value
+	 */
+	public BleDescriptor(String path, BleCharacteristic characteristic, List<DescriptorFlag> flags, String uuid, byte[] value) {
+		if(CLIENT_CONFIGURATION_UUID.equalsIgnoreCase(uuid)) {
+			throw new IllegalArgumentException("The Client Characteristic Configuration descriptor is managed by bluez");
+		}
+		this.path = path;
+		this.objectPath = new Path(path);
+		this.characteristic = characteristic;
+		this.uuid = uuid;
+		for (DescriptorFlag flag : flags) {
+			this.flags.add(flag.toString());
+		}
+		this.value = value.clone();
+	}
+
+	/**
+	 * Create a read-only Characteristic User Description descriptor (0x2901).
+	 * @param path
+	 * @param characteristic
+	 * @param description
+	 * @return
+	 */
+	public static BleDescriptor userDescription(String path, BleCharacteristic characteristic, String description) {
+		return new BleDescriptor(path, characteristic, Arrays.asList(DescriptorFlag.READ), USER_DESCRIPTION_UUID,
+				description.getBytes(Charset.forName("UTF-8")));
+	}
+
+	protected void export(BleTransport transport) throws DBusException {
+		transport.exportObject(path, this);
+	}
+
+	protected void unexport(BleTransport transport) throws DBusException {
+		transport.unexportObject(path);
+	}
+
+	/**
+	 * Return the Path (dbus class)
+	 * @return
+	 */
+	public Path getPath() {
+		return objectPath;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public byte[] getValue() {
+		return value.clone();
+	}
+
+	/**
+	 * Replace the value of the descriptor.
+	 * @param value
+	 */
+	public void setValue(byte[] value) {
+		this.value = value.clone();
+		invalidateProperties();
+	}
+
+	/**
+	 * Return the properties of the descriptor. The map is built once and cached until
+	 * the value changes, so it must not be modified.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Map<String, Map<String, Variant>> getProperties() {
+		Map<String, Map<String, Variant>> properties = this.properties;
+		if(properties == null) {
+			synchronized (this) {
+				if(this.properties == null) {
+					this.properties = buildProperties();
+				}
+				properties = this.properties;
+			}
+		}
+		return properties;
+	}
+
+	private void invalidateProperties() {
+		synchronized (this) {
+			this.properties = null;
+		}
+		characteristic.invalidateManagedObjects();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Map<String, Map<String, Variant>> buildProperties() {
+		Map<String, Variant> descriptorMap = new HashMap<String, Variant>();
+
+		Variant<Path> characteristicPathProperty = new Variant<Path>(characteristic.getPath());
+		descriptorMap.put(DESCRIPTOR_CHARACTERISTIC_PROPERTY_KEY, characteristicPathProperty);
+
+		Variant<String> uuidProperty = new Variant<String>(this.uuid);
+		descriptorMap.put(DESCRIPTOR_UUID_PROPERTY_KEY, uuidProperty);
+
+		Variant<String[]> flagsProperty = new Variant<String[]>(Utils.getStringArrayFromList(this.flags));
+		descriptorMap.put(DESCRIPTOR_FLAGS_PROPERTY_KEY, flagsProperty);
+
+		Variant<byte[]> valueProperty = new Variant<byte[]>(this.value);
+		descriptorMap.put(DESCRIPTOR_VALUE_PROPERTY_KEY, valueProperty);
+
+		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
+		externalMap.put(GATT_DESCRIPTOR_INTERFACE, Collections.unmodifiableMap(descriptorMap));
+
+		return Collections.unmodifiableMap(externalMap);
+	}
+
+	@Override
+	public boolean isRemote() {
+		return false;
+	}
+
+	/**
+	 * This method is called when the central request the descriptor's value.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public byte[] ReadValue(Map<String, Variant> option) {
+		int offset = getOffset(option);
+		byte[] value = this.value;
+		if(offset == 0) {
+			return value;
+		}
+		if(offset > value.length) {
+			throw new Error.InvalidOffset("Offset out of value [offset=" + offset + ", length=" + value.length + "]");
+		}
+		return Arrays.copyOfRange(value, offset, value.length);
+	}
+
+	private static int getOffset(Map<String, ?> option) {
+		Object offset = option.get(OFFSET_OPTION_KEY);
+		if(offset instanceof Variant && ((Variant<?>) offset).getValue() instanceof Number) {
+			return ((Number) ((Variant<?>) offset).getValue()).intValue();
+		}
+		return 0;
+	}
+
+	/**
+	 * This method is called when the central want to write the descriptor's value.
+	 * A long write comes in fragments with increasing offset: every fragment replaces the value from its offset on.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void WriteValue(byte[] value, Map<String, Variant> option) {
+		if(!flags.contains(DescriptorFlag.WRITE.toString())
+				&& !flags.contains(DescriptorFlag.ENCRYPT_WRITE.toString())
+				&& !flags.contains(DescriptorFlag.ENCRYPT_AUTHENTICATED_WRITE.toString())) {
+			throw new Error.NotPermitted("Descriptor not writable [path=" + path + "]");
+		}
+		int offset = getOffset(option);
+		synchronized (this) {
+			byte[] currentValue = this.value;
+			if(offset > currentValue.length) {
+				throw new Error.InvalidOffset("Offset out of value [offset=" + offset + ", length=" + currentValue.length + "]");
+			}
+			byte[] newValue = Arrays.copyOf(currentValue, offset + value.length);
+			System.arraycopy(value, 0, newValue, offset, value.length);
+			this.value = newValue;
+		}
+		invalidateProperties();
+	}
+
+	@Override
+	public <A> A Get(String interface_name, String property_name) {
+		return null;
+	}
+
+	@Override
+	public <A> void Set(String interface_name, String property_name, A value) {
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Map<String, Variant> GetAll(String interfaceName) {
+		if(GATT_DESCRIPTOR_INTERFACE.equals(interfaceName)) {
+			return this.getProperties().get(GATT_DESCRIPTOR_INTERFACE);
+		}
+		throw new RuntimeException("Wrong interface [interface_name=" + interfaceName + "]");
+	}
+
+}
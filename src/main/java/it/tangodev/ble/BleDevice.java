@@ -0,0 +1,117 @@
+package it.tangodev.ble;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BleDevice represent a remote device known by bluez (org.bluez.Device1), with its connection state.
+ * The application can attach its own per-device state with setAttribute().
+ */
+public class BleDevice {
+
+	private final String path;
+	private final String address;
+	private volatile boolean connected = false;
+	private volatile long connectedSince = 0;
+	// 0 until bluez reports it
+	private volatile int mtu = 0;
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+	BleDevice(String path, String address) {
+		this.path = path;
+		this.address = address;
+	}
+
+	/**
+	 * The bluez object path, for example /org/bluez/hci0/dev_00_11_22_33_44_55
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * The path of the adapter that sees the device, for example /org/bluez/hci0
+	 * @return
+	 */
+	public String getAdapterPath() {
+		return path.substring(0, path.lastIndexOf('/'));
+	}
+
+	/**
+	 * The Bluetooth address, for example 00:11:22:33:44:55
+	 * @return
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * The time of the connection (System.currentTimeMillis()), 0 if the device is not connected.
+	 * @return
+	 */
+	public long getConnectedSince() {
+		return connectedSince;
+	}
+
+	/**
+	 * The ATT_MTU negotiated with the device, as bluez reports it in the options of the reads and the writes
+	 * (bluez 5.50 or newer). BleCharacteristic.DEFAULT_ATT_MTU until it is reported.
+	 * @return
+	 */
+	public int getMtu() {
+		int mtu = this.mtu;
+		return (mtu > 0) ? mtu : BleCharacteristic.DEFAULT_ATT_MTU;
+	}
+
+	/**
+	 * @return true if the mtu changed
+	 */
+	boolean setMtu(int mtu) {
+		if(this.mtu == mtu) {
+			return false;
+		}
+		this.mtu = mtu;
+		return true;
+	}
+
+	public Object getAttribute(String key) {
+		return attributes.get(key);
+	}
+
+	public void setAttribute(String key, Object value) {
+		if(value == null) {
+			attributes.remove(key);
+		} else {
+			attributes.put(key, value);
+		}
+	}
+
+	/**
+	 * Change the connection state.
+	 * @param connected
+	 * @return true if the state changed
+	 */
+	synchronized boolean setConnected(boolean connected) {
+		if(this.connected == connected) {
+			return false;
+		}
+		this.connectedSince = connected ? System.currentTimeMillis() : 0;
+		if(!connected) {
+			// every connection negotiates its own ATT_MTU
+			this.mtu = 0;
+		}
+		this.connected = connected;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "BleDevice [path=" + path + ", address=" + address + ", connected=" + connected + "]";
+	}
+
+}
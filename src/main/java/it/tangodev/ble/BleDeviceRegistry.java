@@ -0,0 +1,231 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BleDeviceRegistry keeps the devices known by bluez, indexed by object path and by address.
+ * It is updated by the BleApplication from the bluez signals.
+ */
+public class BleDeviceRegistry {
+
+	private static final String DEVICE_PATH_PREFIX = "dev_";
+
+	private final ConcurrentMap<String, BleDevice> devicesByPath = new ConcurrentHashMap<String, BleDevice>();
+	private final ConcurrentMap<String, BleDevice> devicesByAddress = new ConcurrentHashMap<String, BleDevice>();
+	private final AtomicInteger connectedCount = new AtomicInteger(0);
+	// the connected devices of every adapter, by adapter path
+	private final ConcurrentMap<String, AtomicInteger> connectedCountByAdapter = new ConcurrentHashMap<String, AtomicInteger>();
+	// the smallest ATT_MTU of the connected devices, computed again when a device connects, disconnects or changes its mtu
+	private final Object mtuLock = new Object();
+	private volatile int minMtu = BleCharacteristic.DEFAULT_ATT_MTU;
+	private volatile DisconnectListener disconnectListener;
+
+	/**
+	 * Called when a connected device disconnects, also when it is removed or bluez is lost,
+	 * so what was kept for the device can be dropped.
+	 */
+	interface DisconnectListener {
+		void deviceDisconnected(BleDevice device);
+	}
+
+	void setDisconnectListener(DisconnectListener disconnectListener) {
+		this.disconnectListener = disconnectListener;
+	}
+
+	/**
+	 * Return the device with the given object path or address, null if it is unknown.
+	 * @param id
+	 * @return
+	 */
+	public BleDevice getDevice(String id) {
+		BleDevice device = devicesByPath.get(id);
+		return (device != null) ? device : devicesByAddress.get(id);
+	}
+
+	public BleDevice getDeviceByPath(String path) {
+		return devicesByPath.get(path);
+	}
+
+	public BleDevice getDeviceByAddress(String address) {
+		return devicesByAddress.get(address);
+	}
+
+	/**
+	 * @param id: object path or address of the device
+	 * @return
+	 */
+	public boolean isConnected(String id) {
+		BleDevice device = getDevice(id);
+		return device != null && device.isConnected();
+	}
+
+	public boolean hasConnectedDevice() {
+		return connectedCount.get() > 0;
+	}
+
+	public int getConnectedCount() {
+		return connectedCount.get();
+	}
+
+	/**
+	 * The number of devices connected through one adapter.
+	 * @param adapterPath
+	 * @return
+	 */
+	public int getConnectedCount(String adapterPath) {
+		AtomicInteger count = connectedCountByAdapter.get(adapterPath);
+		return (count != null) ? count.get() : 0;
+	}
+
+	/**
+	 * The smallest ATT_MTU of the connected devices, that is the longest notification all of them receive whole.
+	 * BleCharacteristic.DEFAULT_ATT_MTU if no device is connected.
+	 * @return
+	 */
+	public int getMinMtu() {
+		return minMtu;
+	}
+
+	public Collection<BleDevice> getDevices() {
+		return devicesByPath.values();
+	}
+
+	public List<BleDevice> getConnectedDevices() {
+		List<BleDevice> connectedDevices = new ArrayList<BleDevice>();
+		for (BleDevice device : devicesByPath.values()) {
+			if(device.isConnected()) {
+				connectedDevices.add(device);
+			}
+		}
+		return connectedDevices;
+	}
+
+	/**
+	 * Register a device, or return the registered one.
+	 * @param path
+	 * @param address: null to derive it from the path
+	 * @return
+	 */
+	BleDevice add(String path, String address) {
+		BleDevice device = devicesByPath.get(path);
+		if(device != null) {
+			return device;
+		}
+		if(address == null) {
+			address = addressFromPath(path);
+		}
+		BleDevice newDevice = new BleDevice(path, address);
+		device = devicesByPath.putIfAbsent(path, newDevice);
+		if(device != null) {
+			return device;
+		}
+		devicesByAddress.put(address, newDevice);
+		return newDevice;
+	}
+
+	/**
+	 * Remove a device, it is disconnected if it was connected.
+	 * @param path
+	 * @return the removed device, null if it was unknown
+	 */
+	BleDevice remove(String path) {
+		BleDevice device = devicesByPath.remove(path);
+		if(device == null) {
+			return null;
+		}
+		devicesByAddress.remove(device.getAddress(), device);
+		setConnected(device, false);
+		return device;
+	}
+
+	/**
+	 * Change the ATT_MTU of a device, as bluez reports it.
+	 * @param device
+	 * @param mtu
+	 */
+	void setMtu(BleDevice device, int mtu) {
+		if(device.setMtu(mtu) && device.isConnected()) {
+			updateMinMtu();
+		}
+	}
+
+	private void updateMinMtu() {
+		synchronized (mtuLock) {
+			int newMinMtu = Integer.MAX_VALUE;
+			for (BleDevice device : devicesByPath.values()) {
+				if(device.isConnected()) {
+					newMinMtu = Math.min(newMinMtu, device.getMtu());
+				}
+			}
+			minMtu = (newMinMtu == Integer.MAX_VALUE) ? BleCharacteristic.DEFAULT_ATT_MTU : newMinMtu;
+		}
+	}
+
+	/**
+	 * Change the connection state of a device.
+	 * @param device
+	 * @param connected
+	 * @return true if the state changed
+	 */
+	boolean setConnected(BleDevice device, boolean connected) {
+		if(!device.setConnected(connected)) {
+			return false;
+		}
+		if(connected) {
+			connectedCount.incrementAndGet();
+			getAdapterCount(device.getAdapterPath()).incrementAndGet();
+			updateMinMtu();
+			return true;
+		}
+		connectedCount.decrementAndGet();
+		getAdapterCount(device.getAdapterPath()).decrementAndGet();
+		updateMinMtu();
+		DisconnectListener disconnectListener = this.disconnectListener;
+		if(disconnectListener != null) {
+			disconnectListener.deviceDisconnected(device);
+		}
+		return true;
+	}
+
+	private AtomicInteger getAdapterCount(String adapterPath) {
+		AtomicInteger count = connectedCountByAdapter.get(adapterPath);
+		if(count == null) {
+			AtomicInteger created = new AtomicInteger(0);
+			count = connectedCountByAdapter.putIfAbsent(adapterPath, created);
+			if(count == null) {
+				count = created;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Forget every device. The caller disconnects the connected devices first with setConnected(),
+	 * so the disconnect listener sees them.
+	 */
+	void clear() {
+		devicesByPath.clear();
+		devicesByAddress.clear();
+		connectedCount.set(0);
+		connectedCountByAdapter.clear();
+		minMtu = BleCharacteristic.DEFAULT_ATT_MTU;
+	}
+
+	/**
+	 * bluez names the devices .../dev_00_11_22_33_44_55
+	 */
+	static String addressFromPath(String path) {
+		int index = path.lastIndexOf('/');
+		String name = path.substring(index + 1);
+		if(name.startsWith(DEVICE_PATH_PREFIX)) {
+			return name.substring(DEVICE_PATH_PREFIX.length()).replace('_', ':');
+		}
+		return name;
+	}
+
+}
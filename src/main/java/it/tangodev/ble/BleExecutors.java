@@ -0,0 +1,44 @@
+package it.tangodev.ble;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory of the executors used by the library.
+ */
+public class BleExecutors {
+
+	private BleExecutors() {
+	}
+
+	/**
+	 * Return the executor that runs the asynchronous characteristic handlers:
+	 * one virtual thread per task when the JDK supports them (Java 21 or better), otherwise a cached pool of daemon threads.
+	 * @return
+	 */
+	public static ExecutorService newHandlerExecutor() {
+		try {
+			Method virtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtualThreadExecutor.invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool(newDaemonThreadFactory("ble-handler"));
+		}
+	}
+
+	static ThreadFactory newDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,21 @@
+package it.tangodev.ble;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The logger of the library, "it.tangodev.ble" of java.util.logging, for the failures that can't be
+ * returned to a caller: a signal handler, a background thread, a socket closed by the other side.
+ */
+final class BleLog {
+
+	static final Logger LOGGER = Logger.getLogger("it.tangodev.ble");
+
+	private BleLog() {
+	}
+
+	static void warning(String message, Throwable thrown) {
+		LOGGER.log(Level.WARNING, message, thrown);
+	}
+
+}
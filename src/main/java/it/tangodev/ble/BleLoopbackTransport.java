@@ -0,0 +1,246 @@
+package it.tangodev.ble;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * BleLoopbackTransport connects the objects of one JVM without D-Bus: a method of a remote object is a plain Java call
+ * and a signal is given to the handlers on the thread that sends it, nothing is marshalled.
+ * The other side, for example a bluez running in memory, publishes its objects with addRemoteObject(), reaches the
+ * exported objects with getExportedObject() and sends its signals on the same transport.
+ * A handler receives the signals that are instances of its class: a DBusSignal built with a signature,
+ * as the notifications, only reaches the handlers of DBusSignal.
+ * The org.freedesktop.DBus object gives every name with remote objects as owner of itself.
+ */
+public class BleLoopbackTransport implements BleTransport {
+
+	private final ConcurrentMap<String, DBusInterface> exportedObjects = new ConcurrentHashMap<String, DBusInterface>();
+	// the key is the bus name followed by the path
+	private final ConcurrentMap<String, DBusInterface> remoteObjects = new ConcurrentHashMap<String, DBusInterface>();
+	private final ConcurrentMap<Class<? extends DBusSignal>, List<DBusSigHandler<? extends DBusSignal>>> handlers = new ConcurrentHashMap<Class<? extends DBusSignal>, List<DBusSigHandler<? extends DBusSignal>>>();
+	private final DBus bus = new Bus();
+
+	/**
+	 * Publish an object of another bus name, that getRemoteObject() returns.
+	 * @param busName
+	 * @param path
+	 * @param object
+	 */
+	public void addRemoteObject(String busName, String path, DBusInterface object) {
+		remoteObjects.put(busName + path, object);
+	}
+
+	public void removeRemoteObject(String busName, String path) {
+		remoteObjects.remove(busName + path);
+	}
+
+	/**
+	 * @param path
+	 * @param type
+	 * @return the exported object, as bluez would call it
+	 */
+	public <I extends DBusInterface> I getExportedObject(String path, Class<I> type) {
+		DBusInterface object = exportedObjects.get(path);
+		if(object == null || !type.isInstance(object)) {
+			throw new DBus.Error.UnknownObject("No object exported [path=" + path + ", interface=" + type.getName() + "]");
+		}
+		return type.cast(object);
+	}
+
+	@Override
+	public void exportObject(String path, DBusInterface object) throws DBusException {
+		if(exportedObjects.putIfAbsent(path, object) != null) {
+			throw new DBusException("Object already exported [path=" + path + "]");
+		}
+	}
+
+	@Override
+	public void unexportObject(String path) {
+		exportedObjects.remove(path);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void sendSignal(DBusSignal signal) {
+		for (Map.Entry<Class<? extends DBusSignal>, List<DBusSigHandler<? extends DBusSignal>>> entry : handlers.entrySet()) {
+			if(!entry.getKey().isInstance(signal)) {
+				continue;
+			}
+			for (DBusSigHandler<? extends DBusSignal> handler : entry.getValue()) {
+				try {
+					((DBusSigHandler<DBusSignal>) handler).handle(signal);
+				} catch(RuntimeException e) {
+					// as on the bus, the sender doesn't see the failures of the handlers
+					BleLog.warning("Signal handler failed [signal=" + signal.getName() + ", path=" + signal.getPath() + "]", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The handlers receive the signal itself and can keep it.
+	 */
+	@Override
+	public boolean isSignalWrittenOnSend() {
+		return false;
+	}
+
+	/**
+	 * The remote objects are found at once, so an object that doesn't exist fails here
+	 * and not at the first call as on the bus.
+	 */
+	@Override
+	public <I extends DBusInterface> I getRemoteObject(String busName, String path, Class<I> type) throws DBusException {
+		if(BleApplication.DBUS_BUSNAME.equals(busName) && type == DBus.class) {
+			return type.cast(bus);
+		}
+		DBusInterface object = remoteObjects.get(busName + path);
+		if(object == null || !type.isInstance(object)) {
+			throw new DBus.Error.UnknownObject("No remote object [bus=" + busName + ", path=" + path + ", interface=" + type.getName() + "]");
+		}
+		return type.cast(object);
+	}
+
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, DBusSigHandler<T> handler) {
+		List<DBusSigHandler<? extends DBusSignal>> typeHandlers = handlers.get(type);
+		if(typeHandlers == null) {
+			List<DBusSigHandler<? extends DBusSignal>> created = new CopyOnWriteArrayList<DBusSigHandler<? extends DBusSignal>>();
+			typeHandlers = handlers.putIfAbsent(type, created);
+			if(typeHandlers == null) {
+				typeHandlers = created;
+			}
+		}
+		typeHandlers.add(handler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, DBusSigHandler<T> handler) {
+		List<DBusSigHandler<? extends DBusSignal>> typeHandlers = handlers.get(type);
+		if(typeHandlers != null) {
+			typeHandlers.remove(handler);
+		}
+	}
+
+	/**
+	 * The signals on the loopback have no sender, so the handler receives them all, as addSigHandler(type, handler).
+	 */
+	@Override
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) {
+		addSigHandler(type, handler);
+	}
+
+	@Override
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) {
+		removeSigHandler(type, handler);
+	}
+
+	/**
+	 * Drop the exported objects and the handlers, the remote objects stay.
+	 */
+	@Override
+	public void disconnect() {
+		exportedObjects.clear();
+		handlers.clear();
+	}
+
+	private Set<String> getBusNames() {
+		Set<String> names = new TreeSet<String>();
+		for (String key : remoteObjects.keySet()) {
+			names.add(key.substring(0, key.indexOf('/')));
+		}
+		return names;
+	}
+
+	private class Bus implements DBus {
+
+		@Override
+		public boolean isRemote() {
+			return false;
+		}
+
+		@Override
+		public String Hello() {
+			throw new DBus.Error.UnknownMethod("Hello");
+		}
+
+		@Override
+		public String[] ListNames() {
+			Set<String> names = getBusNames();
+			return names.toArray(new String[names.size()]);
+		}
+
+		@Override
+		public boolean NameHasOwner(String name) {
+			return getBusNames().contains(name);
+		}
+
+		@Override
+		public String GetNameOwner(String name) {
+			if(!NameHasOwner(name)) {
+				throw new DBus.Error.ServiceUnknown("No owner [name=" + name + "]");
+			}
+			return name;
+		}
+
+		@Override
+		public UInt32 GetConnectionUnixUser(String connectionName) {
+			throw new DBus.Error.UnknownMethod("GetConnectionUnixUser");
+		}
+
+		@Override
+		public UInt32 StartServiceByName(String name, UInt32 flags) {
+			throw new DBus.Error.UnknownMethod("StartServiceByName");
+		}
+
+		@Override
+		public UInt32 RequestName(String name, UInt32 flags) {
+			throw new DBus.Error.UnknownMethod("RequestName");
+		}
+
+		@Override
+		public UInt32 ReleaseName(String name) {
+			throw new DBus.Error.UnknownMethod("ReleaseName");
+		}
+
+		@Override
+		public void AddMatch(String matchrule) {
+		}
+
+		@Override
+		public void RemoveMatch(String matchrule) {
+		}
+
+		@Override
+		public String[] ListQueuedOwners(String name) {
+			return NameHasOwner(name) ? new String[] { name } : new String[0];
+		}
+
+		@Override
+		public UInt32 GetConnectionUnixProcessID(String connectionName) {
+			throw new DBus.Error.UnknownMethod("GetConnectionUnixProcessID");
+		}
+
+		@Override
+		public Byte[] GetConnectionSELinuxSecurityContext(String args) {
+			throw new DBus.Error.UnknownMethod("GetConnectionSELinuxSecurityContext");
+		}
+
+		@Override
+		public void ReloadConfig() {
+		}
+	}
+
+}
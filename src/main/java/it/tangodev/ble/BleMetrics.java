@@ -0,0 +1,62 @@
+package it.tangodev.ble;
+
+/**
+ * The metrics of the application: counters and latency timers, looked up once by name and labels
+ * and then updated on the hot path. BleMetricsRegistry keeps them in memory and writes them as text,
+ * an implementation of this interface can forward them to another metrics library.
+ * The names and the labels used by the library are the constants of BleMetricsRegistry.
+ */
+public interface BleMetrics {
+
+	/**
+	 * Metrics that record nothing.
+	 */
+	public static final BleMetrics NONE = new BleMetrics() {
+		private final Counter counter = new Counter() {
+			@Override
+			public void increment() {
+			}
+		};
+		private final Timer timer = new Timer() {
+			@Override
+			public void record(long nanos) {
+			}
+		};
+
+		@Override
+		public Counter counter(String name, String... labels) {
+			return counter;
+		}
+
+		@Override
+		public Timer timer(String name, String... labels) {
+			return timer;
+		}
+	};
+
+	/**
+	 * @param name
+	 * @param labels: pairs of label name and label value
+	 * @return the counter, the same one for the same name and labels
+	 */
+	public Counter counter(String name, String... labels);
+
+	/**
+	 * @param name
+	 * @param labels: pairs of label name and label value
+	 * @return the timer, the same one for the same name and labels
+	 */
+	public Timer timer(String name, String... labels);
+
+	public interface Counter {
+		public void increment();
+	}
+
+	public interface Timer {
+		/**
+		 * @param nanos: the duration of one operation
+		 */
+		public void record(long nanos);
+	}
+
+}
@@ -0,0 +1,251 @@
+package it.tangodev.ble;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics kept in memory with striped counters (LongAdder), so the threads that update the same metric
+ * don't contend. A timer is a histogram of the durations with buckets from 1 microsecond to about 33 seconds,
+ * every bucket twice the previous one.
+ * writeText() gives them in the Prometheus text format, for an HTTP endpoint or a log, without any external service.
+ */
+public class BleMetricsRegistry implements BleMetrics {
+
+	public static final String CHARACTERISTIC_READ = "ble_characteristic_read_seconds";
+	public static final String CHARACTERISTIC_WRITE = "ble_characteristic_write_seconds";
+	public static final String CHARACTERISTIC_NOTIFY = "ble_characteristic_notify_seconds";
+	public static final String CHARACTERISTIC_ERRORS = "ble_characteristic_errors_total";
+	public static final String APPLICATION_REGISTER = "ble_application_register_seconds";
+	public static final String APPLICATION_REGISTER_FAILURES = "ble_application_register_failures_total";
+	public static final String SIGNAL_HANDLER = "ble_signal_handler_seconds";
+	public static final String SIGNAL_HANDLER_ERRORS = "ble_signal_handler_errors_total";
+	public static final String DEVICE_CONNECTS = "ble_device_connects_total";
+	public static final String DEVICE_CONNECTION = "ble_device_connection_seconds";
+	public static final String ADVERTISEMENT_ERRORS = "ble_advertisement_errors_total";
+	public static final String CHARACTERISTIC_LABEL = "characteristic";
+	public static final String OPERATION_LABEL = "operation";
+	public static final String SIGNAL_LABEL = "signal";
+	public static final String ADVERTISEMENT_LABEL = "advertisement";
+
+	static final int BUCKETS = 26;
+	private static final long FIRST_BUCKET_NANOS = 1000;
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	// sorted by name and labels, so the text groups the metrics of the same name
+	private final ConcurrentMap<String, CounterMetric> counters = new ConcurrentSkipListMap<String, CounterMetric>();
+	private final ConcurrentMap<String, TimerMetric> timers = new ConcurrentSkipListMap<String, TimerMetric>();
+
+	@Override
+	public Counter counter(String name, String... labels) {
+		String key = getKey(name, labels);
+		CounterMetric counter = counters.get(key);
+		if(counter == null) {
+			CounterMetric created = new CounterMetric(name, formatLabels(labels));
+			counter = counters.putIfAbsent(key, created);
+			if(counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	@Override
+	public Timer timer(String name, String... labels) {
+		String key = getKey(name, labels);
+		TimerMetric timer = timers.get(key);
+		if(timer == null) {
+			TimerMetric created = new TimerMetric(name, formatLabels(labels));
+			timer = timers.putIfAbsent(key, created);
+			if(timer == null) {
+				timer = created;
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * @param name
+	 * @param labels
+	 * @return the value of a counter or the number of durations of a timer, 0 if it doesn't exist
+	 */
+	public long getCount(String name, String... labels) {
+		String key = getKey(name, labels);
+		CounterMetric counter = counters.get(key);
+		if(counter != null) {
+			return counter.value.sum();
+		}
+		TimerMetric timer = timers.get(key);
+		return (timer != null) ? timer.count.sum() : 0;
+	}
+
+	/**
+	 * @param name
+	 * @param labels
+	 * @return the sum of the durations of a timer in nanoseconds, 0 if it doesn't exist
+	 */
+	public long getTotalNanos(String name, String... labels) {
+		TimerMetric timer = timers.get(getKey(name, labels));
+		return (timer != null) ? timer.totalNanos.sum() : 0;
+	}
+
+	/**
+	 * Drop all the metrics, the handles already given keep counting but are not written anymore.
+	 */
+	public void clear() {
+		counters.clear();
+		timers.clear();
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format: the counters, then the timers as histograms in seconds.
+	 * The values are read while they change, so the buckets of a timer can be a little ahead of its count.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeText(Appendable out) throws IOException {
+		String lastName = null;
+		for (CounterMetric counter : counters.values()) {
+			if(!counter.name.equals(lastName)) {
+				out.append("# TYPE ").append(counter.name).append(" counter\n");
+				lastName = counter.name;
+			}
+			out.append(counter.name).append(braces(counter.labels)).append(' ').append(Long.toString(counter.value.sum())).append('\n');
+		}
+		lastName = null;
+		for (TimerMetric timer : timers.values()) {
+			if(!timer.name.equals(lastName)) {
+				out.append("# TYPE ").append(timer.name).append(" histogram\n");
+				lastName = timer.name;
+			}
+			String separator = timer.labels.isEmpty() ? "" : ",";
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += timer.buckets[i].sum();
+				out.append(timer.name).append("_bucket{").append(timer.labels).append(separator).append("le=\"")
+						.append(Double.toString((FIRST_BUCKET_NANOS << i) / NANOS_PER_SECOND)).append("\"} ").append(Long.toString(cumulative)).append('\n');
+			}
+			cumulative += timer.buckets[BUCKETS].sum();
+			out.append(timer.name).append("_bucket{").append(timer.labels).append(separator).append("le=\"+Inf\"} ")
+					.append(Long.toString(cumulative)).append('\n');
+			out.append(timer.name).append("_sum").append(braces(timer.labels)).append(' ')
+					.append(Double.toString(timer.totalNanos.sum() / NANOS_PER_SECOND)).append('\n');
+			out.append(timer.name).append("_count").append(braces(timer.labels)).append(' ').append(Long.toString(cumulative)).append('\n');
+		}
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text format
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		try {
+			writeText(text);
+		} catch (IOException e) {
+			// a StringBuilder doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @return the bucket of a duration: the first one whose upper bound is not less than the duration
+	 */
+	static int getBucket(long nanos) {
+		if(nanos <= FIRST_BUCKET_NANOS) {
+			return 0;
+		}
+		return Math.min(64 - Long.numberOfLeadingZeros((nanos - 1) / FIRST_BUCKET_NANOS), BUCKETS);
+	}
+
+	private static String getKey(String name, String[] labels) {
+		if(labels.length == 0) {
+			return name;
+		}
+		StringBuilder key = new StringBuilder(name);
+		for (String label : labels) {
+			key.append('\u0000').append(label);
+		}
+		return key.toString();
+	}
+
+	private static String formatLabels(String[] labels) {
+		if(labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be pairs of name and value [labels=" + labels.length + "]");
+		}
+		StringBuilder formatted = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if(i > 0) {
+				formatted.append(',');
+			}
+			formatted.append(labels[i]).append("=\"");
+			String value = String.valueOf(labels[i + 1]);
+			for (int c = 0; c < value.length(); c++) {
+				char ch = value.charAt(c);
+				if(ch == '\\' || ch == '"') {
+					formatted.append('\\').append(ch);
+				} else if(ch == '\n') {
+					formatted.append("\\n");
+				} else {
+					formatted.append(ch);
+				}
+			}
+			formatted.append('"');
+		}
+		return formatted.toString();
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+	private static class CounterMetric implements Counter {
+		private final String name;
+		private final String labels;
+		private final LongAdder value = new LongAdder();
+
+		CounterMetric(String name, String labels) {
+			this.name = name;
+			this.labels = labels;
+		}
+
+		@Override
+		public void increment() {
+			value.increment();
+		}
+	}
+
+	private static class TimerMetric implements Timer {
+		private final String name;
+		private final String labels;
+		// the last one counts the durations over the last bound
+		private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+		TimerMetric(String name, String labels) {
+			this.name = name;
+			this.labels = labels;
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		@Override
+		public void record(long nanos) {
+			if(nanos < 0) {
+				nanos = 0;
+			}
+			buckets[getBucket(nanos)].increment();
+			count.increment();
+			totalNanos.add(nanos);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BleMetricsRegistry [counters=" + counters.size() + ", timers=" + timers.size() + "]";
+	}
+
+}
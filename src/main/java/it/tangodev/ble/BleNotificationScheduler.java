@@ -0,0 +1,220 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BleNotificationScheduler decouples the producers of the values from the D-Bus signals.
+ * Repeated updates of the same characteristic are coalesced into the latest value and every characteristic
+ * is notified at most once per minimum interval (for example one connection interval).
+ * The notifications are sent in batches by a single dispatcher thread, so the caller never blocks on D-Bus.
+ *
+ * The scheduler is owned by the BleApplication, that starts and stops it with the application.
+ */
+public class BleNotificationScheduler {
+
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 30;
+
+	/**
+	 * Marker for the notifications that take the value from the characteristic's listener when they are sent.
+	 */
+	private static final byte[] LISTENER_VALUE = new byte[0];
+
+	private final ConcurrentMap<BleCharacteristic, PendingNotification> notifications = new ConcurrentHashMap<BleCharacteristic, PendingNotification>();
+	private final BlockingQueue<PendingNotification> dirtyQueue = new LinkedBlockingQueue<PendingNotification>();
+	private volatile long defaultMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_INTERVAL_MILLIS);
+	private volatile Thread dispatcher;
+
+	/**
+	 * Set the minimum interval between two notifications of the same characteristic.
+	 * It is used by the characteristics that have not their own interval.
+	 * @param millis
+	 */
+	public void setMinInterval(long millis) {
+		this.defaultMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Set the minimum interval between two notifications of the given characteristic.
+	 * @param characteristic
+	 * @param millis
+	 */
+	public void setMinInterval(BleCharacteristic characteristic, long millis) {
+		getPendingNotification(characteristic).minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Schedule a notification of the characteristic, the value is asked to the listener when the notification is sent.
+	 * @param characteristic
+	 */
+	public void schedule(BleCharacteristic characteristic) {
+		schedule(characteristic, LISTENER_VALUE);
+	}
+
+	/**
+	 * Schedule a notification of the characteristic with the given value.
+	 * If a notification of the same characteristic is still pending, its value is replaced.
+	 * Nothing is scheduled while no central is subscribed to the characteristic.
+	 * @param characteristic
+	 * @param value
+	 */
+	public void schedule(BleCharacteristic characteristic, byte[] value) {
+		if(!characteristic.isNotifying()) {
+			return;
+		}
+		PendingNotification notification = getPendingNotification(characteristic);
+		notification.value.set(value);
+		if(notification.queued.compareAndSet(false, true)) {
+			dirtyQueue.offer(notification);
+		}
+	}
+
+	/**
+	 * Discard the pending notification of the characteristic.
+	 * @param characteristic
+	 */
+	public void cancel(BleCharacteristic characteristic) {
+		PendingNotification notification = notifications.remove(characteristic);
+		if(notification != null) {
+			notification.value.set(null);
+		}
+	}
+
+	/**
+	 * @param characteristic
+	 * @return true if the scheduler keeps a notification of the characteristic, pending or already sent
+	 */
+	boolean isScheduled(BleCharacteristic characteristic) {
+		return notifications.containsKey(characteristic);
+	}
+
+	protected synchronized void start() {
+		if(dispatcher != null) {
+			return;
+		}
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "ble-notification-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	protected synchronized void stop() {
+		Thread thread = dispatcher;
+		if(thread == null) {
+			return;
+		}
+		dispatcher = null;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		dirtyQueue.clear();
+		for (PendingNotification notification : notifications.values()) {
+			notification.value.set(null);
+			notification.queued.set(false);
+		}
+	}
+
+	private PendingNotification getPendingNotification(BleCharacteristic characteristic) {
+		PendingNotification notification = notifications.get(characteristic);
+		if(notification == null) {
+			PendingNotification newNotification = new PendingNotification(characteristic);
+			notification = notifications.putIfAbsent(characteristic, newNotification);
+			if(notification == null) {
+				notification = newNotification;
+			}
+		}
+		return notification;
+	}
+
+	/**
+	 * Loop of the dispatcher thread: send every notification whose interval is elapsed,
+	 * then sleep until the next one is due or a new notification arrives.
+	 * A notification that fails is counted as a notify error of its characteristic, the others are still sent.
+	 */
+	private void dispatch() {
+		List<PendingNotification> waiting = new ArrayList<PendingNotification>();
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				if(waiting.isEmpty()) {
+					waiting.add(dirtyQueue.take());
+				}
+				dirtyQueue.drainTo(waiting);
+
+				long now = System.nanoTime();
+				long nextDue = Long.MAX_VALUE;
+				Iterator<PendingNotification> iterator = waiting.iterator();
+				while(iterator.hasNext()) {
+					PendingNotification notification = iterator.next();
+					long due = notification.lastSentNanos + notification.getMinIntervalNanos();
+					if(notification.lastSentNanos == 0 || due - now <= 0) {
+						iterator.remove();
+						try {
+							notification.send(now);
+						} catch(Throwable throwable) {
+							notification.characteristic.getMetrics().notifyErrors.increment();
+						}
+					} else if(due < nextDue) {
+						nextDue = due;
+					}
+				}
+
+				if(!waiting.isEmpty()) {
+					PendingNotification notification = dirtyQueue.poll(nextDue - now, TimeUnit.NANOSECONDS);
+					if(notification != null) {
+						waiting.add(notification);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	private class PendingNotification {
+		private final BleCharacteristic characteristic;
+		private final AtomicReference<byte[]> value = new AtomicReference<byte[]>();
+		private final AtomicBoolean queued = new AtomicBoolean(false);
+		private volatile long minIntervalNanos = -1;
+		// accessed only by the dispatcher thread
+		private long lastSentNanos = 0;
+
+		PendingNotification(BleCharacteristic characteristic) {
+			this.characteristic = characteristic;
+		}
+
+		long getMinIntervalNanos() {
+			return (minIntervalNanos < 0) ? defaultMinIntervalNanos : minIntervalNanos;
+		}
+
+		void send(long now) {
+			// clear the flag before taking the value, so a concurrent update is queued again and never lost
+			queued.set(false);
+			byte[] notificationValue = value.getAndSet(null);
+			if(notificationValue == null) {
+				return;
+			}
+			lastSentNanos = now;
+			if(notificationValue == LISTENER_VALUE) {
+				characteristic.sendNotification();
+			} else {
+				characteristic.sendNotification(notificationValue);
+			}
+		}
+	}
+
+}
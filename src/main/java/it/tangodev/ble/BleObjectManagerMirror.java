@@ -0,0 +1,223 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * BleObjectManagerMirror is a local copy of the bluez object tree (adapters, devices, ...).
+ * It is seeded once with GetManagedObjects() and then kept up to date with the InterfacesAdded, InterfacesRemoved
+ * and PropertiesChanged signals, so the lookups of adapters and devices never call bluez.
+ *
+ * The signals received before the seed are applied after it, in their order.
+ */
+public class BleObjectManagerMirror {
+
+	private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Variant<?>>>> objects = new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, Variant<?>>>>();
+	// guarded by this
+	private boolean seeded = false;
+	private List<Runnable> pendingUpdates = new ArrayList<Runnable>();
+
+	/**
+	 * @return true after the seed, until clear()
+	 */
+	public synchronized boolean isSeeded() {
+		return seeded;
+	}
+
+	/**
+	 * The number of objects in the tree.
+	 * @return
+	 */
+	public int size() {
+		return objects.size();
+	}
+
+	/**
+	 * @param path
+	 * @return the interfaces of the object, null if it is unknown
+	 */
+	public Map<String, ? extends Map<String, Variant<?>>> getObject(String path) {
+		Map<String, ? extends Map<String, Variant<?>>> object = objects.get(path);
+		return (object != null) ? Collections.unmodifiableMap(object) : null;
+	}
+
+	/**
+	 * @param path
+	 * @param interfaceName
+	 * @return the properties of one interface of the object, null if the object doesn't implement it
+	 */
+	public Map<String, Variant<?>> getProperties(String path, String interfaceName) {
+		Map<String, ConcurrentMap<String, Variant<?>>> object = objects.get(path);
+		if(object == null) {
+			return null;
+		}
+		Map<String, Variant<?>> properties = object.get(interfaceName);
+		return (properties != null) ? Collections.unmodifiableMap(properties) : null;
+	}
+
+	/**
+	 * @param interfaceNames
+	 * @return the paths of the objects that implement all the interfaces, sorted
+	 */
+	public List<String> getPaths(String... interfaceNames) {
+		List<String> paths = new ArrayList<String>();
+		for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, Variant<?>>>> object : objects.entrySet()) {
+			boolean implementsAll = true;
+			for (String interfaceName : interfaceNames) {
+				if(!object.getValue().containsKey(interfaceName)) {
+					implementsAll = false;
+					break;
+				}
+			}
+			if(implementsAll) {
+				paths.add(object.getKey());
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * @param parentPath
+	 * @param interfaceName
+	 * @return the paths of the direct children of parentPath that implement the interface, sorted
+	 */
+	public List<String> getChildPaths(String parentPath, String interfaceName) {
+		List<String> paths = new ArrayList<String>();
+		for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, Variant<?>>>> object : objects.entrySet()) {
+			String path = object.getKey();
+			if(path.length() > parentPath.length() + 1 && path.startsWith(parentPath) && path.charAt(parentPath.length()) == '/'
+					&& path.indexOf('/', parentPath.length() + 1) < 0 && object.getValue().containsKey(interfaceName)) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * Replace the tree with the result of GetManagedObjects(), then apply the signals received in the meantime.
+	 * @param managedObjects
+	 */
+	synchronized void seed(Map<Path, ? extends Map<String, ? extends Map<String, ?>>> managedObjects) {
+		objects.clear();
+		for (Map.Entry<Path, ? extends Map<String, ? extends Map<String, ?>>> object : managedObjects.entrySet()) {
+			putInterfaces(object.getKey().toString(), object.getValue());
+		}
+		seeded = true;
+		for (Runnable update : pendingUpdates) {
+			update.run();
+		}
+		pendingUpdates.clear();
+	}
+
+	/**
+	 * Forget the tree, for example because bluetoothd exited.
+	 */
+	synchronized void clear() {
+		seeded = false;
+		objects.clear();
+		pendingUpdates.clear();
+	}
+
+	synchronized void interfacesAdded(final String path, final Map<String, ? extends Map<String, ?>> interfaces) {
+		if(!seeded) {
+			pendingUpdates.add(new Runnable() {
+				@Override
+				public void run() {
+					putInterfaces(path, interfaces);
+				}
+			});
+			return;
+		}
+		putInterfaces(path, interfaces);
+	}
+
+	synchronized void interfacesRemoved(final String path, final List<String> interfaceNames) {
+		if(!seeded) {
+			pendingUpdates.add(new Runnable() {
+				@Override
+				public void run() {
+					removeInterfaces(path, interfaceNames);
+				}
+			});
+			return;
+		}
+		removeInterfaces(path, interfaceNames);
+	}
+
+	synchronized void propertiesChanged(final String path, final String interfaceName, final Map<String, ?> changed, final List<String> invalidated) {
+		if(!seeded) {
+			pendingUpdates.add(new Runnable() {
+				@Override
+				public void run() {
+					changeProperties(path, interfaceName, changed, invalidated);
+				}
+			});
+			return;
+		}
+		changeProperties(path, interfaceName, changed, invalidated);
+	}
+
+	private void putInterfaces(String path, Map<String, ? extends Map<String, ?>> interfaces) {
+		ConcurrentMap<String, ConcurrentMap<String, Variant<?>>> object = objects.get(path);
+		if(object == null) {
+			object = new ConcurrentHashMap<String, ConcurrentMap<String, Variant<?>>>();
+			objects.put(path, object);
+		}
+		for (Map.Entry<String, ? extends Map<String, ?>> entry : interfaces.entrySet()) {
+			ConcurrentMap<String, Variant<?>> properties = new ConcurrentHashMap<String, Variant<?>>();
+			putProperties(properties, entry.getValue());
+			object.put(entry.getKey(), properties);
+		}
+	}
+
+	private void removeInterfaces(String path, List<String> interfaceNames) {
+		ConcurrentMap<String, ConcurrentMap<String, Variant<?>>> object = objects.get(path);
+		if(object == null) {
+			return;
+		}
+		for (String interfaceName : interfaceNames) {
+			object.remove(interfaceName);
+		}
+		if(object.isEmpty()) {
+			objects.remove(path);
+		}
+	}
+
+	private void changeProperties(String path, String interfaceName, Map<String, ?> changed, List<String> invalidated) {
+		ConcurrentMap<String, ConcurrentMap<String, Variant<?>>> object = objects.get(path);
+		if(object == null) {
+			return;
+		}
+		ConcurrentMap<String, Variant<?>> properties = object.get(interfaceName);
+		if(properties == null) {
+			return;
+		}
+		putProperties(properties, changed);
+		if(invalidated != null) {
+			for (String property : invalidated) {
+				properties.remove(property);
+			}
+		}
+	}
+
+	/**
+	 * The values of the maps received from dbus are all Variant, they are copied with a checked cast.
+	 */
+	private static void putProperties(Map<String, Variant<?>> properties, Map<String, ?> values) {
+		for (Map.Entry<String, ?> value : values.entrySet()) {
+			if(value.getValue() instanceof Variant) {
+				properties.put(value.getKey(), (Variant<?>) value.getValue());
+			}
+		}
+	}
+
+}
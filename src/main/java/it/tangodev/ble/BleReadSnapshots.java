@@ -0,0 +1,76 @@
+package it.tangodev.ble;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The values captured at the first read of a long read, one for every device, so the following reads
+ * with an offset return the same version of the value. A snapshot is dropped when its timeout expires.
+ */
+class BleReadSnapshots {
+
+	private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+	private volatile long timeoutNanos;
+
+	BleReadSnapshots(long timeoutMillis) {
+		setTimeout(timeoutMillis);
+	}
+
+	void setTimeout(long timeoutMillis) {
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	boolean isEnabled() {
+		return timeoutNanos > 0;
+	}
+
+	void put(String device, byte[] value) {
+		long now = System.nanoTime();
+		evictExpired(now);
+		snapshots.put(device, new Snapshot(value, now + timeoutNanos));
+	}
+
+	/**
+	 * Return the snapshot of the device, or null if there is not or it is expired.
+	 * @param device
+	 * @return
+	 */
+	byte[] get(String device) {
+		Snapshot snapshot = snapshots.get(device);
+		if(snapshot == null) {
+			return null;
+		}
+		if(snapshot.expiration - System.nanoTime() < 0) {
+			snapshots.remove(device, snapshot);
+			return null;
+		}
+		return snapshot.value;
+	}
+
+	void remove(String device) {
+		snapshots.remove(device);
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Map.Entry<String, Snapshot>> iterator = snapshots.entrySet().iterator();
+		while(iterator.hasNext()) {
+			if(iterator.next().getValue().expiration - now < 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Snapshot {
+		private final byte[] value;
+		private final long expiration;
+
+		Snapshot(byte[] value, long expiration) {
+			this.value = value;
+			this.expiration = expiration;
+		}
+	}
+
+}
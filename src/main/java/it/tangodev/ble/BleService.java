@@ -1,13 +1,13 @@
 package it.tangodev.ble;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bluez.GattService1;
 import org.freedesktop.DBus.Properties;
-import org.freedesktop.dbus.DBusConnection;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -26,8 +26,13 @@ public class BleService implements GattService1, Properties {
 	
 	private String uuid = null;
 	private Boolean primary = true;
-	private List<BleCharacteristic> characteristics = new ArrayList<BleCharacteristic>();
+	private List<BleCharacteristic> characteristics = new CopyOnWriteArrayList<BleCharacteristic>();
 	private String path = null;
+	private volatile BleApplication application = null;
+	// built on demand and dropped by invalidateProperties()
+	@SuppressWarnings("rawtypes")
+	private volatile Map<String, Map<String, Variant>> properties = null;
+	private volatile Path cachedPath = null;
 	
 	/**
 	 * Remember that the path need to have this format APPLICATION/SERVICE
@@ -41,30 +46,50 @@ public class BleService implements GattService1, Properties {
 		this.primary = primary;
 	}
 	
+	/**
+	 * Add a characteristic. If the application is running the characteristic is exported at once.
+	 * @param characteristic
+	 */
 	public void addCharacteristic(BleCharacteristic characteristic) {
 		this.characteristics.add(characteristic);
+		invalidateProperties();
+		BleApplication application = this.application;
+		if(application != null) {
+			application.characteristicAdded(this, characteristic);
+		}
 	}
 	
+	/**
+	 * Remove a characteristic. If the application is running the characteristic is unexported at once.
+	 * @param characteristic
+	 */
 	public void removeCharacteristic(BleCharacteristic characteristic) {
-		this.characteristics.remove(characteristic);
+		if(!this.characteristics.remove(characteristic)) {
+			return;
+		}
+		invalidateProperties();
+		BleApplication application = this.application;
+		if(application != null) {
+			application.characteristicRemoved(this, characteristic);
+		}
 	}
 	
 	public List<BleCharacteristic> getCharacteristics() {
 		return characteristics;
 	}
 	
-	protected void export(DBusConnection dbusConnection) throws DBusException {
+	protected void export(BleTransport transport) throws DBusException {
 		for (BleCharacteristic characteristic : characteristics) {
-			characteristic.export(dbusConnection);
+			characteristic.export(transport);
 		}
-		dbusConnection.exportObject(this.getPath().toString(), this);
+		transport.exportObject(this.getPath().toString(), this);
 	}
 
-	protected void unexport(DBusConnection dbusConnection) throws DBusException {
+	protected void unexport(BleTransport transport) throws DBusException {
         for (BleCharacteristic characteristic : characteristics) {
-            characteristic.unexport(dbusConnection);
+            characteristic.unexport(transport);
         }
-        dbusConnection.unExportObject(this.getPath().toString());
+        transport.unexportObject(this.getPath().toString());
     }
 	
 	/**
@@ -72,7 +97,12 @@ public class BleService implements GattService1, Properties {
 	 * @return
 	 */
 	public Path getPath() {
-		return new Path(path);
+		Path cachedPath = this.cachedPath;
+		if(cachedPath == null || cachedPath.getPath() != path) {
+			cachedPath = new Path(path);
+			this.cachedPath = cachedPath;
+		}
+		return cachedPath;
 	}
 	
 	/**
@@ -87,7 +117,57 @@ public class BleService implements GattService1, Properties {
 		return pathArray;
 	}
 	
+	/**
+	 * Return the properties of the service. The map is built once and cached until
+	 * the service changes, so it must not be modified.
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
 	public Map<String, Map<String, Variant>> getProperties() {
+		Map<String, Map<String, Variant>> properties = this.properties;
+		if(properties == null) {
+			synchronized (this) {
+				if(this.properties == null) {
+					this.properties = buildProperties();
+				}
+				properties = this.properties;
+			}
+		}
+		return properties;
+	}
+	
+	/**
+	 * Drop the cached properties of the service and of the application that contains it.
+	 * Call it after changing the list returned by getCharacteristics().
+	 */
+	public void invalidateProperties() {
+		synchronized (this) {
+			this.properties = null;
+		}
+		invalidateManagedObjects();
+	}
+	
+	/**
+	 * Called when one of the characteristics changes: the service properties are still valid,
+	 * the application's managed objects are not.
+	 */
+	void invalidateManagedObjects() {
+		BleApplication application = this.application;
+		if(application != null) {
+			application.invalidateManagedObjects();
+		}
+	}
+	
+	void setApplication(BleApplication application) {
+		this.application = application;
+	}
+	
+	BleApplication getApplication() {
+		return application;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private Map<String, Map<String, Variant>> buildProperties() {
 		Map<String, Variant> serviceMap = new HashMap<String, Variant>();
 		
 		Variant<String> uuidProperty = new Variant<String>(this.uuid);
@@ -100,9 +180,9 @@ public class BleService implements GattService1, Properties {
 		serviceMap.put(SERVICE_CHARACTERISTIC_PROPERTY_KEY, characteristicsPat);
 		
 		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-		externalMap.put(GATT_SERVICE_INTERFACE, serviceMap);
+		externalMap.put(GATT_SERVICE_INTERFACE, Collections.unmodifiableMap(serviceMap));
 		
-		return externalMap;
+		return Collections.unmodifiableMap(externalMap);
 	}
 	
 	public Boolean isPrimary() {
@@ -111,6 +191,7 @@ public class BleService implements GattService1, Properties {
 
 	public void setPrimary(Boolean primary) {
 		this.primary = primary;
+		invalidateProperties();
 	}
 
 	public String getUuid() {
@@ -119,14 +200,25 @@ public class BleService implements GattService1, Properties {
 
 	public void setUuid(String uuid) {
 		this.uuid = uuid;
+		invalidateProperties();
 	}
 
+	/**
+	 * Replace the characteristics, this must be done before the application starts.
+	 * @param characteristics
+	 */
 	public void setCharacteristics(List<BleCharacteristic> characteristics) {
-		this.characteristics = characteristics;
+		this.characteristics = new CopyOnWriteArrayList<BleCharacteristic>(characteristics);
+		invalidateProperties();
 	}
 
 	public void setPath(String path) {
 		this.path = path;
+		invalidateProperties();
+		// the characteristics publish the path of their service
+		for (BleCharacteristic characteristic : characteristics) {
+			characteristic.invalidateProperties();
+		}
 	}
 
 	@Override
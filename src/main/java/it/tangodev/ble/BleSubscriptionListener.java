@@ -0,0 +1,11 @@
+package it.tangodev.ble;
+
+/**
+ * Interface informed when the centrals subscribe or unsubscribe the notifications of one Characteristic.
+ * The methods are called on the D-Bus dispatch thread, so they should return quickly.
+ *
+ */
+public interface BleSubscriptionListener {
+	public void notifyStarted(BleCharacteristic characteristic);
+	public void notifyStopped(BleCharacteristic characteristic);
+}
@@ -0,0 +1,208 @@
+package it.tangodev.ble;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.DBus;
+import org.freedesktop.DBus.NameOwnerChanged;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * BleSupervisor watches the owner of the org.bluez name. When bluetoothd exits the registration of the application
+ * is dropped, when bluetoothd comes back the application is registered again. A registration that fails
+ * (for example because the adapter is not published yet) is retried with a bounded exponential backoff.
+ *
+ * The supervisor is owned by the BleApplication, that starts and stops it with the application.
+ */
+public class BleSupervisor {
+
+	public static final long DEFAULT_INITIAL_RETRY_MILLIS = 10;
+	public static final long DEFAULT_MAX_RETRY_MILLIS = 1000;
+
+	private final BleApplication application;
+	private final DBusSigHandler<NameOwnerChanged> nameOwnerChangedHandler;
+	private volatile long initialRetryMillis = DEFAULT_INITIAL_RETRY_MILLIS;
+	private volatile long maxRetryMillis = DEFAULT_MAX_RETRY_MILLIS;
+	// guarded by this
+	private ScheduledExecutorService executor;
+	private BleTransport transport;
+	private ScheduledFuture<?> pendingRegistration;
+	private long retryMillis;
+	private long bluezAppearedNanos;
+	private volatile long lastRecoveryNanos = -1;
+
+	BleSupervisor(BleApplication application) {
+		this.application = application;
+		this.nameOwnerChangedHandler = new DBusSigHandler<NameOwnerChanged>() {
+			@Override
+			public void handle(NameOwnerChanged signal) {
+				if(BleApplication.BLUEZ_DBUS_BUSNAME.equals(signal.name)) {
+					// the signals can be dispatched out of order, so the owner is asked again on the supervisor thread
+					ownerChanged();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Set the delay before the first retry of a failed registration and the upper bound of the delay,
+	 * every retry doubles the delay.
+	 * @param initialMillis
+	 * @param maxMillis
+	 */
+	public void setRetryDelay(long initialMillis, long maxMillis) {
+		if(initialMillis <= 0 || maxMillis < initialMillis) {
+			throw new IllegalArgumentException("Wrong retry delay [initial=" + initialMillis + ", max=" + maxMillis + "]");
+		}
+		this.initialRetryMillis = initialMillis;
+		this.maxRetryMillis = maxMillis;
+	}
+
+	/**
+	 * The time from the return of bluetoothd to the new registration of the application, -1 if it never happened.
+	 * @return milliseconds
+	 */
+	public long getLastRecoveryTime() {
+		long nanos = lastRecoveryNanos;
+		return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	protected synchronized void start(BleTransport transport) throws DBusException {
+		if(executor != null) {
+			return;
+		}
+		this.transport = transport;
+		executor = Executors.newSingleThreadScheduledExecutor(BleExecutors.newDaemonThreadFactory("ble-supervisor"));
+		transport.addSigHandler(NameOwnerChanged.class, nameOwnerChangedHandler);
+	}
+
+	protected void stop() throws DBusException {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = this.executor;
+			if(executor == null) {
+				return;
+			}
+			this.executor = null;
+			pendingRegistration = null;
+			transport.removeSigHandler(NameOwnerChanged.class, nameOwnerChangedHandler);
+			transport = null;
+		}
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(DEFAULT_MAX_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Schedule the registration of the application as if bluetoothd was just started,
+	 * used when the registration in start() failed.
+	 */
+	synchronized void retryRegistration() {
+		bluezAppeared();
+	}
+
+	DBusSigHandler<NameOwnerChanged> getNameOwnerChangedHandler() {
+		return nameOwnerChangedHandler;
+	}
+
+	private synchronized void ownerChanged() {
+		if(executor == null) {
+			return;
+		}
+		cancelPendingRegistration();
+		bluezAppearedNanos = System.nanoTime();
+		retryMillis = initialRetryMillis;
+		pendingRegistration = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				String owner = getBluezOwner();
+				if(owner == null || !owner.equals(application.getBluezOwner())) {
+					// bluetoothd exited or a new one owns the name: what was registered in the previous one is gone
+					application.bluezLost();
+				}
+				if(owner != null) {
+					register();
+				}
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void bluezAppeared() {
+		if(executor == null) {
+			return;
+		}
+		cancelPendingRegistration();
+		bluezAppearedNanos = System.nanoTime();
+		retryMillis = initialRetryMillis;
+		pendingRegistration = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				register();
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the unique name of the current owner of org.bluez, null if bluetoothd is not running
+	 */
+	private String getBluezOwner() {
+		BleTransport transport;
+		synchronized (this) {
+			transport = this.transport;
+		}
+		if(transport == null) {
+			return null;
+		}
+		try {
+			DBus dbus = transport.getRemoteObject(BleApplication.DBUS_BUSNAME, "/org/freedesktop/DBus", DBus.class);
+			String owner = dbus.GetNameOwner(BleApplication.BLUEZ_DBUS_BUSNAME);
+			return (owner == null || owner.isEmpty()) ? null : owner;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private void cancelPendingRegistration() {
+		if(pendingRegistration != null) {
+			pendingRegistration.cancel(false);
+			pendingRegistration = null;
+		}
+	}
+
+	/**
+	 * Run by the supervisor thread: register the application or schedule a new attempt.
+	 */
+	private void register() {
+		boolean registered;
+		try {
+			registered = application.reregister();
+		} catch (Exception e) {
+			registered = false;
+		}
+		synchronized (this) {
+			if(executor == null || Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			if(registered) {
+				pendingRegistration = null;
+				lastRecoveryNanos = System.nanoTime() - bluezAppearedNanos;
+				return;
+			}
+			long delay = retryMillis;
+			retryMillis = Math.min(retryMillis * 2, maxRetryMillis);
+			pendingRegistration = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					register();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * The connection the application, its services and its advertisements use to reach bluez.
+ * BleDBusTransport goes through a dbus-java connection, BleDBus4Transport through a dbus-java 4 connection,
+ * BleLoopbackTransport connects the objects of one JVM
+ * without a bus, for the tests and the benchmarks that run without bluetoothd.
+ */
+public interface BleTransport {
+	public void exportObject(String path, DBusInterface object) throws DBusException;
+	public void unexportObject(String path);
+	public void sendSignal(DBusSignal signal);
+	/**
+	 * Return true if sendSignal() has written the signal when it returns, so the arrays of its values
+	 * can be changed for the next signal. dbus-java queues the signal with a reference to its arrays.
+	 * @return
+	 */
+	public boolean isSignalWrittenOnSend();
+	public <I extends DBusInterface> I getRemoteObject(String busName, String path, Class<I> type) throws DBusException;
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException;
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, DBusSigHandler<T> handler) throws DBusException;
+	/**
+	 * Subscribe the signals of one sender only: the match rule of the bus has the sender,
+	 * so the signals of the others are not even sent to this connection.
+	 * @param type
+	 * @param source: the unique name of the sender, as GetNameOwner gives it
+	 * @param handler
+	 * @throws DBusException
+	 */
+	public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException;
+	public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException;
+	public void disconnect();
+}
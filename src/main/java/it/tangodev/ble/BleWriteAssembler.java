@@ -0,0 +1,249 @@
+package it.tangodev.ble;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.bluez.Error;
+
+/**
+ * The fragments of the long and reliable writes, put together in a buffer for every device.
+ * bluez calls WriteValue once for every prepared fragment with its offset, and doesn't say which one is the last:
+ * a fragment shorter than a full Prepare Write (ATT_MTU - 5) completes the value, otherwise the value is complete
+ * when no fragment arrives for the timeout. A fragment with offset 0 completes the previous value.
+ * Without the mtu the default ATT_MTU is assumed: no full fragment is shorter, so the value is never completed early.
+ * Every value is delivered once. The buffer of a device is dropped when it disconnects.
+ *
+ * The assembler also remembers the devices whose fragments bluez asked to prepare (prepare-authorize), so
+ * the first fragment of their execute write is recognized without the type option.
+ */
+class BleWriteAssembler {
+
+	// the longest attribute value allowed by ATT
+	static final int MAX_VALUE_LENGTH = 512;
+	// opcode and handle of a write request, plus the offset of a prepare write request
+	private static final int PREPARE_WRITE_HEADER_LENGTH = 5;
+
+	private final BleCharacteristic characteristic;
+	private final ConcurrentMap<String, Assembly> assemblies = new ConcurrentHashMap<String, Assembly>();
+	private volatile long timeoutMillis;
+
+	BleWriteAssembler(BleCharacteristic characteristic, long timeoutMillis) {
+		this.characteristic = characteristic;
+		setTimeout(timeoutMillis);
+	}
+
+	void setTimeout(long timeoutMillis) {
+		if(timeoutMillis <= 0) {
+			throw new IllegalArgumentException("The write timeout must be positive [timeout=" + timeoutMillis + "]");
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Store a fragment.
+	 * @param device
+	 * @param offset
+	 * @param fragment
+	 * @param mtu: the ATT_MTU of the device, 0 if bluez didn't send it
+	 * @return the complete value if this fragment is the last one, null if more fragments are expected
+	 */
+	byte[] write(String device, int offset, byte[] fragment, int mtu) {
+		Assembly assembly = getAssembly(device);
+		if(offset == 0) {
+			deliverPrevious(assembly.complete());
+		}
+		return assembly.write(offset, fragment, (mtu > 0) ? mtu : BleCharacteristic.DEFAULT_ATT_MTU);
+	}
+
+	/**
+	 * Deliver the value put together so far for the device, before a single write that doesn't go through the assembler.
+	 * @param device
+	 */
+	void complete(String device) {
+		Assembly assembly = assemblies.get(device);
+		if(assembly != null) {
+			deliverPrevious(assembly.complete());
+		}
+	}
+
+	/**
+	 * Remember that bluez asked to queue a fragment of the device: the fragment with offset 0 that follows
+	 * starts a long write even without the type option.
+	 * @param device
+	 */
+	void prepared(String device) {
+		getAssembly(device).setPrepared(true);
+	}
+
+	/**
+	 * @param device
+	 * @return true if a fragment of the device was prepared and its execute write didn't start yet
+	 */
+	boolean isPrepared(String device) {
+		Assembly assembly = assemblies.get(device);
+		return assembly != null && assembly.isPrepared();
+	}
+
+	private Assembly getAssembly(String device) {
+		Assembly assembly = assemblies.get(device);
+		if(assembly == null) {
+			Assembly created = new Assembly(device);
+			assembly = assemblies.putIfAbsent(device, created);
+			if(assembly == null) {
+				assembly = created;
+			}
+		}
+		return assembly;
+	}
+
+	private void deliverPrevious(byte[] previous) {
+		if(previous != null) {
+			try {
+				characteristic.deliverWrite(previous);
+			} catch(Throwable throwable) {
+				// the error belongs to the previous write, bluez already got its reply
+				characteristic.writeFailed();
+			}
+		}
+	}
+
+	/**
+	 * Drop the fragments of a disconnected device, ATT discards its prepared writes as well.
+	 * @param device
+	 */
+	void remove(String device) {
+		Assembly assembly = assemblies.remove(device);
+		if(assembly != null) {
+			assembly.discard();
+		}
+	}
+
+	private class Assembly {
+		private final String device;
+		// guarded by this
+		private byte[] buffer;
+		private int length = 0;
+		private boolean active = false;
+		private boolean prepared = false;
+		private ScheduledFuture<?> timeout;
+		// changed by every fragment, so an old timeout doesn't complete a newer value
+		private int generation = 0;
+
+		Assembly(String device) {
+			this.device = device;
+		}
+
+		synchronized byte[] write(int offset, byte[] fragment, int mtu) {
+			cancelTimeout();
+			if(offset == 0) {
+				// a new value, the previous one is complete
+				length = 0;
+				prepared = false;
+			}
+			if(offset > length) {
+				String message = "Offset out of value [offset=" + offset + ", length=" + length + ", device=" + device + "]";
+				reset();
+				throw new Error.InvalidOffset(message);
+			}
+			if(offset + fragment.length > MAX_VALUE_LENGTH) {
+				reset();
+				throw new Error.InvalidValueLength("Value too long [length=" + (offset + fragment.length) + ", max_length=" + MAX_VALUE_LENGTH + "]");
+			}
+			if(buffer == null) {
+				buffer = new byte[MAX_VALUE_LENGTH];
+			}
+			System.arraycopy(fragment, 0, buffer, offset, fragment.length);
+			length = Math.max(length, offset + fragment.length);
+			active = true;
+
+			if(fragment.length < mtu - PREPARE_WRITE_HEADER_LENGTH) {
+				return complete();
+			}
+			final int expectedGeneration = generation;
+			timeout = Timer.EXECUTOR.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timeoutExpired(expectedGeneration);
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+			return null;
+		}
+
+		/**
+		 * @return the value put together so far, null if there is not
+		 */
+		synchronized byte[] complete() {
+			cancelTimeout();
+			if(!active) {
+				return null;
+			}
+			byte[] value = Arrays.copyOf(buffer, length);
+			reset();
+			return value;
+		}
+
+		private void timeoutExpired(int expectedGeneration) {
+			final byte[] value;
+			synchronized (this) {
+				if(generation != expectedGeneration) {
+					return;
+				}
+				timeout = null;
+				value = complete();
+			}
+			if(value == null) {
+				return;
+			}
+			characteristic.getHandlerExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						characteristic.deliverWrite(value);
+					} catch(Throwable throwable) {
+						characteristic.writeFailed();
+					}
+				}
+			});
+		}
+
+		private void cancelTimeout() {
+			generation++;
+			if(timeout != null) {
+				timeout.cancel(false);
+				timeout = null;
+			}
+		}
+
+		synchronized void setPrepared(boolean prepared) {
+			this.prepared = prepared;
+		}
+
+		synchronized boolean isPrepared() {
+			return prepared;
+		}
+
+		synchronized void discard() {
+			cancelTimeout();
+			reset();
+			buffer = null;
+		}
+
+		private void reset() {
+			length = 0;
+			active = false;
+		}
+	}
+
+	/**
+	 * The thread that completes the values after the timeout, created when it is used the first time.
+	 */
+	private static class Timer {
+		private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(BleExecutors.newDaemonThreadFactory("ble-write-assembly"));
+	}
+
+}
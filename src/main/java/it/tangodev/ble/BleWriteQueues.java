@@ -0,0 +1,225 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.WriteOverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The write-without-response packets of one characteristic, in a bounded ring buffer for every device.
+ * The D-Bus dispatch thread only stores the packet, a task on the handler executor delivers the queued
+ * packets of a device to the batch listener, so the packets of one device keep their order.
+ * The buffer of a device is allocated at its first packet and reused.
+ */
+class BleWriteQueues {
+
+	private final BleCharacteristic characteristic;
+	private final ConcurrentMap<String, DeviceQueue> queues = new ConcurrentHashMap<String, DeviceQueue>();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private volatile BleBatchWriteListener listener;
+	private volatile int capacity;
+	private volatile WriteOverflowPolicy policy;
+
+	BleWriteQueues(BleCharacteristic characteristic, int capacity, WriteOverflowPolicy policy) {
+		this.characteristic = characteristic;
+		setCapacity(capacity, policy);
+	}
+
+	void setListener(BleBatchWriteListener listener) {
+		this.listener = listener;
+	}
+
+	BleBatchWriteListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * The new capacity applies to the queues created after the call.
+	 */
+	void setCapacity(int capacity, WriteOverflowPolicy policy) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("The write queue capacity must be positive [capacity=" + capacity + "]");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	long getReceived() {
+		return received.sum();
+	}
+
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * Queue a packet, called on the D-Bus dispatch thread.
+	 * @param device
+	 * @param value
+	 * @param executor: where the packets are delivered
+	 * @param blockMillis: how long the BLOCK policy waits for a free slot
+	 */
+	void offer(String device, byte[] value, Executor executor, long blockMillis) {
+		received.increment();
+		DeviceQueue queue = queues.get(device);
+		if(queue == null) {
+			DeviceQueue created = new DeviceQueue(device, capacity);
+			queue = queues.putIfAbsent(device, created);
+			if(queue == null) {
+				queue = created;
+			}
+		}
+		queue.offer(value, executor, blockMillis);
+	}
+
+	/**
+	 * Drop the queue of a disconnected device, with the packets not delivered yet.
+	 * @param device
+	 */
+	void remove(String device) {
+		DeviceQueue queue = queues.remove(device);
+		if(queue != null) {
+			queue.discard();
+		}
+	}
+
+	private class DeviceQueue {
+		private final String device;
+		private final byte[][] slots;
+		// guarded by this
+		private int head = 0;
+		private int size = 0;
+		private boolean draining = false;
+		private boolean discarded = false;
+
+		DeviceQueue(String device, int capacity) {
+			this.device = device;
+			this.slots = new byte[capacity][];
+		}
+
+		void offer(byte[] value, Executor executor, long blockMillis) {
+			synchronized (this) {
+				// a discarded queue belongs to a disconnected device, a late packet goes nowhere
+				if((size == slots.length && !makeRoom(blockMillis)) || discarded) {
+					dropped.increment();
+					return;
+				}
+				slots[(head + size) % slots.length] = value;
+				size++;
+				if(draining) {
+					return;
+				}
+				draining = true;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				});
+			} catch(RejectedExecutionException e) {
+				synchronized (this) {
+					dropped.add(size);
+					clear();
+					draining = false;
+				}
+			}
+		}
+
+		/**
+		 * Free a slot of the full queue as the policy says. The caller holds the lock of the queue.
+		 * @return false if the new packet must be dropped
+		 */
+		private boolean makeRoom(long blockMillis) {
+			switch(policy) {
+			case DROP_OLDEST:
+				slots[head] = null;
+				head = (head + 1) % slots.length;
+				size--;
+				dropped.increment();
+				return true;
+			case BLOCK:
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis);
+				try {
+					while(size == slots.length) {
+						long waitNanos = deadline - System.nanoTime();
+						if(waitNanos <= 0) {
+							return false;
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+					}
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Run on the handler executor: deliver the queued packets until the queue is empty.
+		 */
+		private void drain() {
+			while(true) {
+				List<byte[]> values;
+				synchronized (this) {
+					if(size == 0) {
+						draining = false;
+						return;
+					}
+					values = new ArrayList<byte[]>(size);
+					while(size > 0) {
+						values.add(slots[head]);
+						slots[head] = null;
+						head = (head + 1) % slots.length;
+						size--;
+					}
+					notifyAll();
+				}
+				batches.increment();
+				BleBatchWriteListener listener = BleWriteQueues.this.listener;
+				if(listener == null) {
+					dropped.add(values.size());
+					continue;
+				}
+				try {
+					listener.valuesWritten(characteristic, device, values);
+				} catch(Throwable throwable) {
+					characteristic.writeFailed();
+				}
+			}
+		}
+
+		synchronized void discard() {
+			discarded = true;
+			dropped.add(size);
+			clear();
+			// the BLOCK policy doesn't wait for a queue that is gone
+			notifyAll();
+		}
+
+		private void clear() {
+			while(size > 0) {
+				slots[head] = null;
+				head = (head + 1) % slots.length;
+				size--;
+			}
+		}
+	}
+
+}
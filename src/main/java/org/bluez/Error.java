@@ -0,0 +1,60 @@
+package org.bluez;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+/**
+ * The errors returned to bluez by the exported objects.
+ * dbus-java names the D-Bus error after the class, for example org.bluez.Error.Failed.
+ */
+public interface Error {
+
+	@SuppressWarnings("serial")
+	public static class Failed extends DBusExecutionException {
+		public Failed(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class InProgress extends DBusExecutionException {
+		public InProgress(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class NotPermitted extends DBusExecutionException {
+		public NotPermitted(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class NotAuthorized extends DBusExecutionException {
+		public NotAuthorized(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class InvalidOffset extends DBusExecutionException {
+		public InvalidOffset(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class InvalidValueLength extends DBusExecutionException {
+		public InvalidValueLength(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class NotSupported extends DBusExecutionException {
+		public NotSupported(String message) {
+			super(message);
+		}
+	}
+
+}
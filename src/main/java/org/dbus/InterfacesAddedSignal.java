@@ -10,6 +10,11 @@ import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 
+/**
+ * @deprecated use {@link ObjectManager.InterfacesAdded}: dbus-java maps org.freedesktop.DBus.ObjectManager on one Java interface only,
+ * so the signals declared here are not delivered once a remote ObjectManager is used.
+ */
+@Deprecated
 @DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
 public interface InterfacesAddedSignal extends DBusInterface {
 	
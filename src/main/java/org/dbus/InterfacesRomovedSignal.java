@@ -9,6 +9,11 @@ import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.exceptions.DBusException;
 
+/**
+ * @deprecated use {@link ObjectManager.InterfacesRemoved}: dbus-java maps org.freedesktop.DBus.ObjectManager on one Java interface only,
+ * so the signals declared here are not delivered once a remote ObjectManager is used.
+ */
+@Deprecated
 @DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
 public interface InterfacesRomovedSignal extends DBusInterface {
 	
@@ -1,13 +1,61 @@
 package org.dbus;
 
+import java.util.List;
 import java.util.Map;
 
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusMemberName;
+import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
 
+/**
+ * The signals are members of this interface: dbus-java looks for the signal classes inside the Java interface
+ * mapped on org.freedesktop.DBus.ObjectManager, and that is this one as soon as a remote ObjectManager is used.
+ */
 @DBusInterfaceName("org.freedesktop.DBus.ObjectManager")
 public interface ObjectManager extends DBusInterface {
 	Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects();
+
+	@DBusMemberName("InterfacesAdded")
+	public static class InterfacesAdded extends DBusSignal {
+		private final Path objectPath;
+		private final Map<String, Map<String, Variant>> interfacesAdded;
+
+		public InterfacesAdded(String path, Path objectPath, Map<String, Map<String, Variant>> interfacesAdded) throws DBusException {
+			super(path, objectPath, interfacesAdded);
+			this.objectPath = objectPath;
+			this.interfacesAdded = interfacesAdded;
+		}
+
+		public Path getObjectPath() {
+			return objectPath;
+		}
+
+		public Map<String, Map<String, Variant>> getInterfacesAdded() {
+			return interfacesAdded;
+		}
+	}
+
+	@DBusMemberName("InterfacesRemoved")
+	public static class InterfacesRemoved extends DBusSignal {
+		private final Path objectPath;
+		private final List<String> interfacesRemoved;
+
+		public InterfacesRemoved(String path, Path objectPath, List<String> interfacesRemoved) throws DBusException {
+			super(path, objectPath, interfacesRemoved);
+			this.objectPath = objectPath;
+			this.interfacesRemoved = interfacesRemoved;
+		}
+
+		public Path getObjectPath() {
+			return objectPath;
+		}
+
+		public List<String> getInterfacesRemoved() {
+			return interfacesRemoved;
+		}
+	}
 }
@@ -0,0 +1,50 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleAdvertisementTest {
+
+	private BleMetricsRegistry metrics;
+	private FakeBluez bluez;
+	private BleApplication application;
+
+	@Before
+	public void setUp() throws Exception {
+		// bluez never receives the signals of the advertisement
+		BleLoopbackTransport loopback = new BleLoopbackTransport() {
+			@Override
+			public void sendSignal(DBusSignal signal) {
+				if(signal.getPath().startsWith("/test/advertisement")) {
+					throw new DBusExecutionException("Disconnected");
+				}
+				super.sendSignal(signal);
+			}
+		};
+		bluez = FakeBluez.start(loopback, 1, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		metrics = new BleMetricsRegistry();
+		application = new BleApplication("/test", null);
+		application.setMetrics(metrics);
+		application.setTransport(loopback);
+		application.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void failedPropertiesChangedIsCounted() {
+		application.getAdvertisement().setIncludeTxPower(true);
+		application.getAdvertisement().setManufacturerData(0xffff, new byte[] { 1, 2 });
+		assertEquals(2, metrics.getCount(BleMetricsRegistry.ADVERTISEMENT_ERRORS, BleMetricsRegistry.ADVERTISEMENT_LABEL, "/test/advertisement"));
+	}
+
+}
@@ -0,0 +1,148 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.BleDescriptor.DescriptorFlag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bluez.Error;
+import org.bluez.GattDescriptor1;
+import org.dbus.ObjectManager.InterfacesAdded;
+import org.dbus.ObjectManager.InterfacesRemoved;
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleApplicationServicesTest {
+
+	private BleLoopbackTransport loopback;
+	private FakeBluez bluez;
+	private BleApplication application;
+	private BleService service;
+	private BleCharacteristic characteristic;
+	private final List<String> removed = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		loopback = new BleLoopbackTransport();
+		loopback.addSigHandler(InterfacesRemoved.class, new DBusSigHandler<InterfacesRemoved>() {
+			@Override
+			public void handle(InterfacesRemoved signal) {
+				removed.add(signal.getObjectPath().getPath());
+			}
+		});
+		bluez = FakeBluez.start(loopback, 1, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		application = new BleApplication("/test", null);
+		service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY),
+				"13333333-3333-3333-3333-333333333101", null);
+		characteristic.addDescriptor(new BleDescriptor("/test/s0/c0/d0", characteristic, Arrays.asList(DescriptorFlag.READ),
+				"13333333-3333-3333-3333-333333333102", new byte[] { 1 }));
+		service.addCharacteristic(characteristic);
+		application.addService(service);
+		application.setTransport(loopback);
+		application.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void removeServiceSendsInterfacesRemovedForTheWholeTree() {
+		application.removeService(service);
+		assertEquals(Arrays.asList("/test/s0/c0/d0", "/test/s0/c0", "/test/s0"), removed);
+	}
+
+	@Test
+	public void descriptorsAreExportedAndUnexportedAtRuntime() {
+		final List<String> added = new CopyOnWriteArrayList<String>();
+		loopback.addSigHandler(InterfacesAdded.class, new DBusSigHandler<InterfacesAdded>() {
+			@Override
+			public void handle(InterfacesAdded signal) {
+				added.add(signal.getObjectPath().getPath());
+			}
+		});
+		BleDescriptor descriptor = new BleDescriptor("/test/s0/c0/d1", characteristic, Arrays.asList(DescriptorFlag.READ),
+				"13333333-3333-3333-3333-333333333103", new byte[] { 2 });
+		characteristic.addDescriptor(descriptor);
+		assertEquals(Arrays.asList("/test/s0/c0/d1"), added);
+		assertArrayEquals(new byte[] { 2 }, loopback.getExportedObject("/test/s0/c0/d1", GattDescriptor1.class)
+				.ReadValue(new HashMap<String, Variant>()));
+
+		characteristic.removeDescriptor(descriptor);
+		assertEquals(Arrays.asList("/test/s0/c0/d1"), removed);
+		try {
+			loopback.getExportedObject("/test/s0/c0/d1", GattDescriptor1.class);
+			fail("Still exported");
+		} catch (DBus.Error.UnknownObject e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void descriptorIsWrittenInTwoFragments() {
+		BleDescriptor descriptor = new BleDescriptor("/test/s0/c0/d1", characteristic, Arrays.asList(DescriptorFlag.READ, DescriptorFlag.WRITE),
+				"13333333-3333-3333-3333-333333333103", new byte[] { 9, 9, 9, 9, 9, 9 });
+		characteristic.addDescriptor(descriptor);
+		GattDescriptor1 remote = loopback.getExportedObject("/test/s0/c0/d1", GattDescriptor1.class);
+		remote.WriteValue(new byte[] { 1, 2, 3 }, new HashMap<String, Variant>());
+		remote.WriteValue(new byte[] { 4, 5 }, offset(3));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, descriptor.getValue());
+		assertArrayEquals(new byte[] { 4, 5 }, remote.ReadValue(offset(3)));
+
+		try {
+			remote.WriteValue(new byte[] { 6 }, offset(6));
+			fail("The offset is past the end of the value");
+		} catch (Error.InvalidOffset e) {
+			// expected
+		}
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, descriptor.getValue());
+	}
+
+	@Test
+	public void bulkNotificationsRecordTheNotifyTimer() {
+		BleMetricsRegistry metrics = (BleMetricsRegistry) application.getMetrics();
+		characteristic.StartNotify();
+		assertEquals(1, application.notifyCharacteristics(Collections.singletonMap(characteristic, new byte[] { 1 })));
+		assertEquals(1, metrics.getCount(BleMetricsRegistry.CHARACTERISTIC_NOTIFY, BleMetricsRegistry.CHARACTERISTIC_LABEL,
+				"13333333-3333-3333-3333-333333333101"));
+	}
+
+	@Test
+	public void removeServiceCancelsThePendingNotifications() {
+		BleNotificationScheduler scheduler = application.getNotificationScheduler();
+		scheduler.setMinInterval(characteristic, 60000);
+		characteristic.StartNotify();
+		scheduler.schedule(characteristic, new byte[] { 1 });
+		scheduler.schedule(characteristic, new byte[] { 2 });
+		assertTrue(scheduler.isScheduled(characteristic));
+
+		application.removeService(service);
+		assertFalse(scheduler.isScheduled(characteristic));
+	}
+
+	private static Map<String, Variant> offset(int offset) {
+		Map<String, Variant> option = new HashMap<String, Variant>();
+		option.put("offset", new Variant<UInt16>(new UInt16(offset)));
+		return option;
+	}
+
+}
@@ -0,0 +1,86 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleApplicationSignalsTest {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+	private static final String ADDRESS = "00:11:22:33:44:55";
+
+	private LocalBus bus;
+	private FakeBluez bluez;
+	private BleApplication application;
+
+	@Before
+	public void setUp() throws Exception {
+		bus = LocalBus.start();
+		bluez = FakeBluez.start(bus);
+		application = new BleApplication("/test", null);
+		application.setBusAddress(bus.getAddress());
+		application.addService(new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true));
+		application.start();
+		application.getSupervisor().setRetryDelay(1, 10);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void signalsOfAnotherSenderAreIgnored() throws Exception {
+		bluez.addDevice(FakeBluez.ADAPTER_PATH, ADDRESS, false);
+		DBusConnection other = bus.connect();
+		try {
+			Map<String, Variant> changed = new HashMap<String, Variant>();
+			changed.put("Connected", new Variant<Boolean>(true));
+			other.sendSignal(new PropertiesChanged(FakeBluez.ADAPTER_PATH + "/dev_00_11_22_33_44_55", "org.bluez.Device1",
+					changed, new ArrayList<String>()));
+			Thread.sleep(200);
+			assertFalse(application.isDeviceConnected(ADDRESS));
+		} finally {
+			other.disconnect();
+		}
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS, true);
+		waitForConnection(true);
+	}
+
+	@Test
+	public void signalsOfARestartedBluezAreHandled() throws Exception {
+		String oldOwner = application.getBluezOwner();
+		bluez.stop();
+		bluez = FakeBluez.start(bus);
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while((application.getBluezOwner() == null || application.getBluezOwner().equals(oldOwner)) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(application.isRegistered());
+
+		// dbus-java dispatches the signals on several threads, so a new device is published without InterfacesAdded
+		bluez.addDevice(FakeBluez.ADAPTER_PATH, ADDRESS, false);
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS, true);
+		waitForConnection(true);
+	}
+
+	private void waitForConnection(boolean connected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while(application.isDeviceConnected(ADDRESS) != connected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(application.isDeviceConnected(ADDRESS) == connected);
+	}
+
+}
@@ -0,0 +1,106 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleCharacteristicReadTest {
+
+	private static final String DEVICE = "/org/bluez/hci0/dev_00_11_22_33_44_55";
+
+	private volatile byte[] value;
+	private BleCharacteristic characteristic;
+
+	@Before
+	public void setUp() {
+		BleService service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.READ),
+				"13333333-3333-3333-3333-333333333101", new BleCharacteristicListener() {
+					@Override
+					public byte[] getValue() {
+						return value;
+					}
+
+					@Override
+					public void setValue(byte[] value) {
+					}
+				});
+	}
+
+	@Test
+	public void longReadOfADeviceIsServedFromTheSnapshot() {
+		byte[] first = fill(40, (byte) 1);
+		value = first;
+		assertArrayEquals(Arrays.copyOf(first, 22), characteristic.ReadValue(option(0, 23, DEVICE)));
+		value = fill(40, (byte) 2);
+		assertArrayEquals(Arrays.copyOfRange(first, 22, 40), characteristic.ReadValue(option(22, 23, DEVICE)));
+	}
+
+	@Test
+	public void readsWithoutDeviceDoNotShareASnapshot() {
+		value = fill(40, (byte) 1);
+		characteristic.ReadValue(option(0, 23, null));
+		byte[] second = fill(40, (byte) 2);
+		value = second;
+		assertArrayEquals(Arrays.copyOfRange(second, 22, 40), characteristic.ReadValue(option(22, 23, null)));
+	}
+
+	@Test
+	public void valueThatFitsTheResponseIsNotSnapshotted() {
+		value = fill(40, (byte) 1);
+		characteristic.ReadValue(option(0, 185, DEVICE));
+		byte[] second = fill(40, (byte) 2);
+		value = second;
+		assertArrayEquals(Arrays.copyOfRange(second, 10, 40), characteristic.ReadValue(option(10, 185, DEVICE)));
+	}
+
+	@Test
+	public void asyncReadServesTheArrayOfTheFuture() {
+		final byte[] asyncValue = fill(40, (byte) 3);
+		characteristic.setAsyncListener(new BleCharacteristicAsyncListener() {
+			@Override
+			public CompletableFuture<byte[]> getValue() {
+				return CompletableFuture.completedFuture(asyncValue);
+			}
+
+			@Override
+			public CompletableFuture<Void> setValue(byte[] value) {
+				return CompletableFuture.completedFuture(null);
+			}
+		});
+		// the whole value is not copied
+		assertSame(asyncValue, characteristic.ReadValue(option(0, 185, null)));
+		assertArrayEquals(Arrays.copyOfRange(asyncValue, 22, 40), characteristic.ReadValue(option(22, 23, null)));
+	}
+
+	private static byte[] fill(int length, byte first) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (first + i);
+		}
+		return bytes;
+	}
+
+	private static Map<String, Variant> option(int offset, int mtu, String device) {
+		Map<String, Variant> option = new HashMap<String, Variant>();
+		option.put("offset", new Variant<UInt16>(new UInt16(offset)));
+		option.put("mtu", new Variant<UInt16>(new UInt16(mtu)));
+		if(device != null) {
+			option.put("device", new Variant<Path>(new Path(device)));
+		}
+		return option;
+	}
+
+}
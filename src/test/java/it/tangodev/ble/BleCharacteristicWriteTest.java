@@ -0,0 +1,152 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bluez.Error;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.junit.Test;
+
+public class BleCharacteristicWriteTest {
+
+	private static final String DEVICE = "/org/bluez/hci0/dev_00_11_22_33_44_55";
+	private static final long TIMEOUT_MILLIS = 50;
+	// a full Prepare Write at the default ATT_MTU
+	private static final int FULL_FRAGMENT_LENGTH = BleCharacteristic.DEFAULT_ATT_MTU - 5;
+
+	private final List<byte[]> written = new CopyOnWriteArrayList<byte[]>();
+
+	@Test
+	public void longWriteIsDeliveredOnceWhole() throws Exception {
+		BleCharacteristic characteristic = createCharacteristic(CharacteristicFlag.WRITE);
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), fragment(0, true));
+		assertEquals(0, written.size());
+
+		// shorter than a full fragment, the value is complete
+		characteristic.WriteValue(fill(4, FULL_FRAGMENT_LENGTH), fragment(FULL_FRAGMENT_LENGTH, true));
+		assertEquals(1, written.size());
+		assertArrayEquals(fill(FULL_FRAGMENT_LENGTH + 4, 0), written.get(0));
+		Thread.sleep(3 * TIMEOUT_MILLIS);
+		assertEquals(1, written.size());
+	}
+
+	@Test
+	public void longWriteWithoutTypeAndMtuIsDeliveredOnceWhole() throws Exception {
+		BleCharacteristic characteristic = createCharacteristic(CharacteristicFlag.WRITE);
+		characteristic.WriteValue(new byte[] { 1, 2, 3 }, fragment(0, false));
+		assertEquals(1, written.size());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, written.get(0));
+
+		// as bluez older than 5.51 prepares a long write, then executes it without the type option
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), prepareAuthorize(0));
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, FULL_FRAGMENT_LENGTH), prepareAuthorize(FULL_FRAGMENT_LENGTH));
+		characteristic.WriteValue(fill(5, 2 * FULL_FRAGMENT_LENGTH), prepareAuthorize(2 * FULL_FRAGMENT_LENGTH));
+		assertEquals(1, written.size());
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), fragment(0, false));
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, FULL_FRAGMENT_LENGTH), fragment(FULL_FRAGMENT_LENGTH, false));
+		characteristic.WriteValue(fill(5, 2 * FULL_FRAGMENT_LENGTH), fragment(2 * FULL_FRAGMENT_LENGTH, false));
+		assertEquals(2, written.size());
+		assertArrayEquals(fill(2 * FULL_FRAGMENT_LENGTH + 5, 0), written.get(1));
+
+		// the execute write consumed the prepare-authorize, the next write is a single one again
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), fragment(0, false));
+		assertEquals(3, written.size());
+	}
+
+	@Test
+	public void fullFragmentWaitsForTheTimeout() throws Exception {
+		BleCharacteristic characteristic = createCharacteristic(CharacteristicFlag.RELIABLE_WRITE);
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), fragment(0, true));
+		assertEquals(0, written.size());
+		waitForWrites(1);
+		assertArrayEquals(fill(FULL_FRAGMENT_LENGTH, 0), written.get(0));
+
+		// without the type option a full write is a single write, unless the assembly of the untyped writes is enabled
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 1), fragment(0, false));
+		assertEquals(2, written.size());
+		characteristic.setAssembleUntypedWrites(true);
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 2), fragment(0, false));
+		assertEquals(2, written.size());
+		waitForWrites(3);
+		assertArrayEquals(fill(FULL_FRAGMENT_LENGTH, 2), written.get(2));
+	}
+
+	@Test(expected = Error.InvalidOffset.class)
+	public void disconnectDropsTheFragments() {
+		BleCharacteristic characteristic = createCharacteristic(CharacteristicFlag.RELIABLE_WRITE);
+		characteristic.WriteValue(fill(FULL_FRAGMENT_LENGTH, 0), fragment(0, true));
+		characteristic.deviceDisconnected(DEVICE);
+		characteristic.WriteValue(new byte[] { 4 }, fragment(FULL_FRAGMENT_LENGTH, true));
+	}
+
+	private BleCharacteristic createCharacteristic(CharacteristicFlag flag) {
+		BleService service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		BleCharacteristic characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(flag),
+				"13333333-3333-3333-3333-333333333101", new BleCharacteristicListener() {
+					@Override
+					public byte[] getValue() {
+						return null;
+					}
+
+					@Override
+					public void setValue(byte[] value) {
+						written.add(value);
+					}
+				});
+		characteristic.setWriteAssemblyTimeout(TIMEOUT_MILLIS);
+		return characteristic;
+	}
+
+	private void waitForWrites(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 20 * TIMEOUT_MILLIS;
+		while(written.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, written.size());
+	}
+
+	/**
+	 * A fragment of an executed prepared write, as bluez sends it without the mtu option.
+	 * @param typed: with the type option of bluez 5.51 or newer
+	 */
+	private static Map<String, Variant> fragment(int offset, boolean typed) {
+		Map<String, Variant> option = new HashMap<String, Variant>();
+		option.put("offset", new Variant<UInt16>(new UInt16(offset)));
+		if(typed) {
+			option.put("type", new Variant<String>("reliable"));
+		}
+		option.put("device", new Variant<Path>(new Path(DEVICE)));
+		return option;
+	}
+
+	/**
+	 * A fragment that bluez asks to queue, before the execute write of a characteristic with the authorize flag.
+	 */
+	private static Map<String, Variant> prepareAuthorize(int offset) {
+		Map<String, Variant> option = fragment(offset, false);
+		option.put("prepare-authorize", new Variant<Boolean>(true));
+		return option;
+	}
+
+	/**
+	 * @return length bytes counting up from first
+	 */
+	private static byte[] fill(int length, int first) {
+		byte[] value = new byte[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = (byte) (first + i);
+		}
+		return value;
+	}
+
+}
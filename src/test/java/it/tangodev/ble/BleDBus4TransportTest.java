@@ -0,0 +1,128 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.shaded.org.freedesktop.dbus.bin.EmbeddedDBusDaemon;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bluez.Error;
+import org.bluez.GattApplication1;
+import org.bluez.GattCharacteristic1;
+import org.dbus.ObjectManager;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.junit.Test;
+
+/**
+ * Two connections of the transport through the daemon of dbus-java 4 on a unix socket:
+ * one exports a characteristic, the other calls it with the remote interfaces of dbus-java 2.7.
+ */
+public class BleDBus4TransportTest {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	@Test
+	public void callsErrorsAndSignalsGoThroughDbusJava4() throws Exception {
+		File directory = Files.createTempDirectory("ble-bus").toFile();
+		String address = "unix:path=" + new File(directory, "bus").getAbsolutePath();
+		EmbeddedDBusDaemon daemon = new EmbeddedDBusDaemon(address + ",listen=true");
+		daemon.startInBackgroundAndWait(TIMEOUT_MILLIS);
+		BleDBus4Transport server = BleDBus4Transport.connect(address);
+		BleDBus4Transport client = BleDBus4Transport.connect(address);
+		try {
+			final AtomicBoolean permitted = new AtomicBoolean(true);
+			BleService service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+			final BleCharacteristic characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.READ),
+					"13333333-3333-3333-3333-333333333101", new BleCharacteristicListener() {
+						@Override
+						public byte[] getValue() {
+							if(!permitted.get()) {
+								throw new Error.NotPermitted("Not now");
+							}
+							return new byte[] { 7, 8 };
+						}
+
+						@Override
+						public void setValue(byte[] value) {
+						}
+					});
+			service.addCharacteristic(characteristic);
+			service.export(server);
+
+			GattCharacteristic1 remote = client.getRemoteObject(server.getUniqueName(), "/test/s0/c0", GattCharacteristic1.class);
+			assertArrayEquals(new byte[] { 7, 8 }, remote.ReadValue(new HashMap<String, Variant>()));
+			permitted.set(false);
+			try {
+				remote.ReadValue(new HashMap<String, Variant>());
+				fail("The error of the listener must reach the caller");
+			} catch(DBusExecutionException e) {
+				// bluez maps the name on an ATT error
+				assertEquals("org.bluez.Error.NotPermitted", e.getType());
+				assertEquals("Not now", e.getMessage());
+			}
+
+			Properties properties = client.getRemoteObject(server.getUniqueName(), "/test/s0/c0", Properties.class);
+			Map<String, Variant> all = properties.GetAll("org.bluez.GattCharacteristic1");
+			assertEquals("13333333-3333-3333-3333-333333333101", all.get("UUID").getValue());
+			assertEquals("/test/s0", all.get("Service").getValue().toString());
+
+			// GattApplication1 is exported as the ObjectManager bluez calls
+			server.exportObject("/test", new GattApplication1() {
+				@Override
+				public Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects() {
+					Map<Path, Map<String, Map<String, Variant>>> objects = new HashMap<Path, Map<String, Map<String, Variant>>>();
+					objects.put(new Path("/test/s0/c0"), characteristic.getProperties());
+					return objects;
+				}
+
+				@Override
+				public boolean isRemote() {
+					return false;
+				}
+			});
+			ObjectManager objectManager = client.getRemoteObject(server.getUniqueName(), "/test", ObjectManager.class);
+			Map<Path, Map<String, Map<String, Variant>>> objects = objectManager.GetManagedObjects();
+			assertEquals("13333333-3333-3333-3333-333333333101",
+					objects.get(new Path("/test/s0/c0")).get("org.bluez.GattCharacteristic1").get("UUID").getValue());
+
+			final BlockingQueue<PropertiesChanged> signals = new LinkedBlockingQueue<PropertiesChanged>();
+			client.addSigHandler(PropertiesChanged.class, server.getUniqueName(), new DBusSigHandler<PropertiesChanged>() {
+				@Override
+				public void handle(PropertiesChanged signal) {
+					signals.add(signal);
+				}
+			});
+			Map<String, Variant> changed = new HashMap<String, Variant>();
+			changed.put("Value", new Variant<byte[]>(new byte[] { 9 }));
+			server.sendSignal(new PropertiesChanged("/test/s0/c0", "org.bluez.GattCharacteristic1", changed, new ArrayList<String>()));
+			PropertiesChanged signal = signals.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			assertNotNull(signal);
+			assertEquals("/test/s0/c0", signal.getPath());
+			assertEquals("org.bluez.GattCharacteristic1", signal.getIface());
+			assertArrayEquals(new byte[] { 9 }, (byte[]) signal.getPropertiesChanged().get("Value").getValue());
+		} finally {
+			client.disconnect();
+			server.disconnect();
+			daemon.close();
+		}
+	}
+
+}
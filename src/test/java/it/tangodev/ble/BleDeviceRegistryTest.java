@@ -0,0 +1,95 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleDeviceRegistryTest {
+
+	private static final String ADDRESS_1 = "00:11:22:33:44:01";
+	private static final String ADDRESS_2 = "00:11:22:33:44:02";
+
+	private BleLoopbackTransport loopback;
+	private FakeBluez bluez;
+	private BleApplication application;
+	private final List<String> disconnected = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		loopback = new BleLoopbackTransport();
+		bluez = FakeBluez.start(loopback, 2, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		application = new BleApplication("/test", new BleApplicationListener() {
+			@Override
+			public void deviceConnected(String id) {
+			}
+
+			@Override
+			public void deviceDisconnected(String id) {
+				disconnected.add(id);
+			}
+		});
+		application.addService(new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true));
+		application.setTransport(loopback);
+		application.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void connectedCountIsKeptPerAdapter() throws Exception {
+		BleDeviceRegistry registry = application.getDeviceRegistry();
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_1, true);
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_2, true);
+		assertEquals(2, registry.getConnectedCount(FakeBluez.ADAPTER_PATH));
+		assertEquals(0, registry.getConnectedCount("/org/bluez/hci1"));
+
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_1, false);
+		assertEquals(1, registry.getConnectedCount(FakeBluez.ADAPTER_PATH));
+		assertEquals(1, registry.getConnectedCount());
+	}
+
+	@Test
+	public void minMtuFollowsTheConnectedDevices() throws Exception {
+		BleDeviceRegistry registry = application.getDeviceRegistry();
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_1, true);
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_2, true);
+		application.updateMtu(getPath(ADDRESS_1), 100);
+		assertEquals(BleCharacteristic.DEFAULT_ATT_MTU, registry.getMinMtu());
+		application.updateMtu(getPath(ADDRESS_2), 50);
+		assertEquals(50, registry.getMinMtu());
+
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_2, false);
+		assertEquals(100, registry.getMinMtu());
+		// every connection negotiates its own ATT_MTU
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_2, true);
+		assertEquals(BleCharacteristic.DEFAULT_ATT_MTU, registry.getMinMtu());
+	}
+
+	@Test
+	public void stopDisconnectsTheDevicesThroughTheListener() throws Exception {
+		BleMetricsRegistry metrics = (BleMetricsRegistry) application.getMetrics();
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_1, true);
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS_2, true);
+
+		application.stop();
+		assertEquals(2, disconnected.size());
+		assertEquals(true, disconnected.containsAll(Arrays.asList(ADDRESS_1, ADDRESS_2)));
+		assertEquals(2, metrics.getCount(BleMetricsRegistry.DEVICE_CONNECTION));
+		assertEquals(0, application.getDeviceRegistry().getConnectedCount(FakeBluez.ADAPTER_PATH));
+	}
+
+	private static String getPath(String address) {
+		return FakeBluez.ADAPTER_PATH + "/dev_" + address.replace(':', '_');
+	}
+
+}
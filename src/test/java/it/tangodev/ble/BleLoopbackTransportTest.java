@@ -0,0 +1,89 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleLoopbackTransportTest {
+
+	private BleLoopbackTransport loopback;
+	private FakeBluez bluez;
+	private BleApplication application;
+	private BleCharacteristic characteristic;
+	private volatile byte[] value = { 1, 2, 3 };
+
+	@Before
+	public void setUp() throws Exception {
+		loopback = new BleLoopbackTransport();
+		bluez = FakeBluez.start(loopback, 1, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		application = new BleApplication("/test", null);
+		BleService service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.NOTIFY),
+				"13333333-3333-3333-3333-333333333101", new BleCharacteristicListener() {
+					@Override
+					public byte[] getValue() {
+						return value;
+					}
+
+					@Override
+					public void setValue(byte[] newValue) {
+						value = newValue;
+					}
+				});
+		service.addCharacteristic(characteristic);
+		application.addService(service);
+		application.setTransport(loopback);
+		application.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void applicationRegistersWithoutBluetoothd() {
+		assertTrue(application.isRegistered());
+		assertEquals(1, bluez.getRegisteredApplications());
+		GattCharacteristic1 remote = loopback.getExportedObject("/test/s0/c0", GattCharacteristic1.class);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, remote.ReadValue(new HashMap<String, Variant>()));
+	}
+
+	@Test
+	public void failingHandlerDoesNotStopTheOthers() {
+		final List<DBusSignal> received = new CopyOnWriteArrayList<DBusSignal>();
+		loopback.addSigHandler(DBusSignal.class, new DBusSigHandler<DBusSignal>() {
+			@Override
+			public void handle(DBusSignal signal) {
+				throw new IllegalStateException("failing handler");
+			}
+		});
+		loopback.addSigHandler(DBusSignal.class, new DBusSigHandler<DBusSignal>() {
+			@Override
+			public void handle(DBusSignal signal) {
+				received.add(signal);
+			}
+		});
+		characteristic.StartNotify();
+		characteristic.sendNotification(new byte[] { 4 });
+		assertEquals(1, received.size());
+		assertEquals("/test/s0/c0", received.get(0).getPath());
+	}
+
+}
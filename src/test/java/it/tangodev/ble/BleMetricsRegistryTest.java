@@ -0,0 +1,56 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BleMetricsRegistryTest {
+
+	@Test
+	public void bucketUpperBoundsAreInclusive() {
+		assertEquals(0, BleMetricsRegistry.getBucket(0));
+		assertEquals(0, BleMetricsRegistry.getBucket(1000));
+		assertEquals(1, BleMetricsRegistry.getBucket(1001));
+		assertEquals(1, BleMetricsRegistry.getBucket(2000));
+		assertEquals(2, BleMetricsRegistry.getBucket(2001));
+		assertEquals(2, BleMetricsRegistry.getBucket(4000));
+		assertEquals(3, BleMetricsRegistry.getBucket(4001));
+		// the last bound, about 33 seconds, then the +Inf bucket
+		assertEquals(BleMetricsRegistry.BUCKETS - 1, BleMetricsRegistry.getBucket(1000L << (BleMetricsRegistry.BUCKETS - 1)));
+		assertEquals(BleMetricsRegistry.BUCKETS, BleMetricsRegistry.getBucket((1000L << (BleMetricsRegistry.BUCKETS - 1)) + 1));
+		assertEquals(BleMetricsRegistry.BUCKETS, BleMetricsRegistry.getBucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void textIsInThePrometheusFormat() {
+		BleMetricsRegistry metrics = new BleMetricsRegistry();
+		metrics.counter(BleMetricsRegistry.DEVICE_CONNECTS).increment();
+		metrics.counter(BleMetricsRegistry.CHARACTERISTIC_ERRORS, BleMetricsRegistry.CHARACTERISTIC_LABEL, "a\"b\\c\nd",
+				BleMetricsRegistry.OPERATION_LABEL, "read").increment();
+		BleMetrics.Timer timer = metrics.timer(BleMetricsRegistry.CHARACTERISTIC_READ, BleMetricsRegistry.CHARACTERISTIC_LABEL, "1234");
+		timer.record(1500);
+		timer.record(3000000);
+
+		String[] lines = metrics.toText().split("\n");
+		int line = 0;
+		assertEquals("# TYPE ble_characteristic_errors_total counter", lines[line++]);
+		assertEquals("ble_characteristic_errors_total{characteristic=\"a\\\"b\\\\c\\nd\",operation=\"read\"} 1", lines[line++]);
+		assertEquals("# TYPE ble_device_connects_total counter", lines[line++]);
+		assertEquals("ble_device_connects_total 1", lines[line++]);
+		assertEquals("# TYPE ble_characteristic_read_seconds histogram", lines[line++]);
+		assertEquals("ble_characteristic_read_seconds_bucket{characteristic=\"1234\",le=\"1.0E-6\"} 0", lines[line++]);
+		assertEquals("ble_characteristic_read_seconds_bucket{characteristic=\"1234\",le=\"2.0E-6\"} 1", lines[line++]);
+		// 3 ms is in the bucket up to 4.096 ms
+		for (int i = 2; i < 12; i++) {
+			assertTrue(lines[line++].endsWith("} 1"));
+		}
+		assertEquals("ble_characteristic_read_seconds_bucket{characteristic=\"1234\",le=\"0.004096\"} 2", lines[line++]);
+		line += BleMetricsRegistry.BUCKETS - 13;
+		assertEquals("ble_characteristic_read_seconds_bucket{characteristic=\"1234\",le=\"+Inf\"} 2", lines[line++]);
+		assertEquals("ble_characteristic_read_seconds_sum{characteristic=\"1234\"} 0.0030015", lines[line++]);
+		assertEquals("ble_characteristic_read_seconds_count{characteristic=\"1234\"} 2", lines[line++]);
+		assertEquals(lines.length, line);
+	}
+
+}
@@ -0,0 +1,74 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleNotificationSchedulerTest {
+
+	private static final String FAILING_UUID = "13333333-3333-3333-3333-333333333101";
+	private static final String HEALTHY_UUID = "13333333-3333-3333-3333-333333333102";
+
+	private BleMetricsRegistry metrics;
+	private BleNotificationScheduler scheduler;
+	private BleService service;
+
+	@Before
+	public void setUp() {
+		metrics = new BleMetricsRegistry();
+		BleApplication application = new BleApplication("/test", null);
+		application.setMetrics(metrics);
+		service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		application.addService(service);
+		scheduler = new BleNotificationScheduler();
+		scheduler.setMinInterval(0);
+		scheduler.start();
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.stop();
+	}
+
+	@Test
+	public void failingNotificationDoesNotStopTheDispatcher() throws InterruptedException {
+		BleCharacteristic failing = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.NOTIFY), FAILING_UUID, null) {
+			@Override
+			public void sendNotification(byte[] value) {
+				throw new IllegalStateException("failing notification");
+			}
+		};
+		final CountDownLatch sent = new CountDownLatch(3);
+		BleCharacteristic healthy = new BleCharacteristic("/test/s0/c1", service, Arrays.asList(CharacteristicFlag.NOTIFY), HEALTHY_UUID, null) {
+			@Override
+			public void sendNotification(byte[] value) {
+				sent.countDown();
+			}
+		};
+		failing.StartNotify();
+		healthy.StartNotify();
+
+		for (int i = 0; i < 3; i++) {
+			scheduler.schedule(failing, new byte[] { 1 });
+			scheduler.schedule(healthy, new byte[] { (byte) i });
+			// let the dispatcher send them before the values are coalesced
+			Thread.sleep(20);
+		}
+
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+		assertEquals(3, metrics.getCount(BleMetricsRegistry.CHARACTERISTIC_ERRORS, BleMetricsRegistry.CHARACTERISTIC_LABEL, FAILING_UUID,
+				BleMetricsRegistry.OPERATION_LABEL, "notify"));
+		assertEquals(0, metrics.getCount(BleMetricsRegistry.CHARACTERISTIC_ERRORS, BleMetricsRegistry.CHARACTERISTIC_LABEL, HEALTHY_UUID,
+				BleMetricsRegistry.OPERATION_LABEL, "notify"));
+	}
+
+}
@@ -0,0 +1,75 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.freedesktop.DBus.NameOwnerChanged;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleSupervisorTest {
+
+	private static final long TIMEOUT_MILLIS = 5000;
+
+	private LocalBus bus;
+	private FakeBluez bluez;
+	private BleApplication application;
+
+	@Before
+	public void setUp() throws Exception {
+		bus = LocalBus.start();
+		bluez = FakeBluez.start(bus);
+		application = new BleApplication("/test", null);
+		application.setBusAddress(bus.getAddress());
+		application.addService(new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true));
+		application.start();
+		application.getSupervisor().setRetryDelay(1, 10);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void outOfOrderOwnerChangesRegisterWithTheCurrentBluez() throws Exception {
+		assertTrue(application.isRegistered());
+		String oldOwner = application.getBluezOwner();
+
+		bluez.stop();
+		bluez = FakeBluez.start(bus);
+		String newOwner = waitForNewOwner(oldOwner);
+		assertEquals(1, bluez.getRegisteredApplications());
+
+		// the signals of the restart delivered again, the new owner first and the exit of the old one last
+		DBusSigHandler<NameOwnerChanged> handler = application.getSupervisor().getNameOwnerChangedHandler();
+		handler.handle(new NameOwnerChanged("/org/freedesktop/DBus", BleApplication.BLUEZ_DBUS_BUSNAME, "", newOwner));
+		handler.handle(new NameOwnerChanged("/org/freedesktop/DBus", BleApplication.BLUEZ_DBUS_BUSNAME, oldOwner, ""));
+		Thread.sleep(200);
+
+		assertTrue(application.isRegistered());
+		assertEquals(newOwner, application.getBluezOwner());
+		assertEquals(1, bluez.getRegisteredApplications());
+	}
+
+	/**
+	 * @return the owner of org.bluez where the application is registered again
+	 */
+	private String waitForNewOwner(String oldOwner) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		String owner = application.getBluezOwner();
+		while((owner == null || owner.equals(oldOwner)) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+			owner = application.getBluezOwner();
+		}
+		assertNotNull(owner);
+		assertNotEquals(oldOwner, owner);
+		return owner;
+	}
+
+}
@@ -0,0 +1,98 @@
+package it.tangodev.ble;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BleWriteQueuesTest {
+
+	private static final String ADDRESS = "00:11:22:33:44:55";
+	private static final String DEVICE_PATH = FakeBluez.ADAPTER_PATH + "/dev_00_11_22_33_44_55";
+
+	private FakeBluez bluez;
+	private BleApplication application;
+	private BleCharacteristic characteristic;
+	// the handler executor runs the tasks only when the test says so
+	private final List<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+	private final List<byte[]> written = new CopyOnWriteArrayList<byte[]>();
+
+	@Before
+	public void setUp() throws Exception {
+		BleLoopbackTransport loopback = new BleLoopbackTransport();
+		bluez = FakeBluez.start(loopback, 1, FakeBluez.DEFAULT_SUPPORTED_INSTANCES);
+		application = new BleApplication("/test", null);
+		BleService service = new BleService("/test/s0", "13333333-3333-3333-3333-333333333100", true);
+		characteristic = new BleCharacteristic("/test/s0/c0", service, Arrays.asList(CharacteristicFlag.WRITE_WITHOUT_RESPONSE),
+				"13333333-3333-3333-3333-333333333101", null);
+		characteristic.setBatchWriteListener(new BleBatchWriteListener() {
+			@Override
+			public void valuesWritten(BleCharacteristic characteristic, String device, List<byte[]> values) {
+				written.addAll(values);
+			}
+		});
+		service.addCharacteristic(characteristic);
+		application.addService(service);
+		application.setTransport(loopback);
+		application.setHandlerExecutor(new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				tasks.add(task);
+			}
+		});
+		application.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		application.stop();
+		bluez.stop();
+	}
+
+	@Test
+	public void disconnectDropsTheQueueOfTheDevice() throws Exception {
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS, true);
+		assertTrue(application.isDeviceConnected(ADDRESS));
+		characteristic.WriteValue(new byte[] { 1 }, writeCommand());
+		characteristic.WriteValue(new byte[] { 2 }, writeCommand());
+
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS, false);
+		runTasks();
+		assertEquals(0, written.size());
+		assertEquals(2, characteristic.getWritesDropped());
+
+		// the device connects again with a new queue
+		bluez.setDeviceConnected(FakeBluez.ADAPTER_PATH, ADDRESS, true);
+		characteristic.WriteValue(new byte[] { 3 }, writeCommand());
+		runTasks();
+		assertEquals(1, written.size());
+		assertEquals(3, written.get(0)[0]);
+	}
+
+	private void runTasks() {
+		while(!tasks.isEmpty()) {
+			tasks.remove(0).run();
+		}
+	}
+
+	private static Map<String, Variant> writeCommand() {
+		Map<String, Variant> option = new HashMap<String, Variant>();
+		option.put("device", new Variant<Path>(new Path(DEVICE_PATH)));
+		option.put("type", new Variant<String>("command"));
+		return option;
+	}
+
+}
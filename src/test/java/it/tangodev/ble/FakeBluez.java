@@ -0,0 +1,292 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bluez.GattManager1;
+import org.bluez.LEAdvertisingManager1;
+import org.dbus.ObjectManager;
+import org.dbus.ObjectManager.InterfacesAdded;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+/**
+ * FakeBluez owns the org.bluez name on a LocalBus and exports one or more adapters with GattManager1 and LEAdvertisingManager1,
+ * enough for BleApplication.start() and stop() to run without bluetoothd.
+ * On a BleLoopbackTransport the same objects are published as remote objects of org.bluez, with no bus at all.
+ * The tests and the benchmarks share it.
+ */
+public class FakeBluez {
+
+	public static final String ADAPTER_PATH = "/org/bluez/hci0";
+	public static final int DEFAULT_SUPPORTED_INSTANCES = 4;
+	private static final String DEVICE_INTERFACE = "org.bluez.Device1";
+
+	// null on a loopback transport
+	private final DBusConnection dbusConnection;
+	private final BleTransport transport;
+	private final BleLoopbackTransport loopback;
+	private final Map<Path, Map<String, Map<String, Variant>>> managedObjects = new ConcurrentHashMap<Path, Map<String, Map<String, Variant>>>();
+	private final AtomicInteger registeredApplications = new AtomicInteger();
+	private final AtomicInteger registeredAdvertisements = new AtomicInteger();
+	private final Map<String, Adapter> adapters = new LinkedHashMap<String, Adapter>();
+	private final int supportedInstances;
+
+	private FakeBluez(DBusConnection dbusConnection, BleLoopbackTransport loopback, int adapters, int supportedInstances) {
+		this.dbusConnection = dbusConnection;
+		this.loopback = loopback;
+		this.transport = (loopback != null) ? loopback : new BleDBusTransport(dbusConnection);
+		this.supportedInstances = supportedInstances;
+		for (int i = 0; i < adapters; i++) {
+			String path = "/org/bluez/hci" + i;
+			this.adapters.put(path, new Adapter(path));
+		}
+	}
+
+	public static FakeBluez start(LocalBus bus) throws DBusException {
+		return start(bus, 1);
+	}
+
+	/**
+	 * Start a bluez with the adapters /org/bluez/hci0 ... hciN-1
+	 * @param bus
+	 * @param adapters
+	 * @return
+	 * @throws DBusException
+	 */
+	public static FakeBluez start(LocalBus bus, int adapters) throws DBusException {
+		return start(bus, adapters, DEFAULT_SUPPORTED_INSTANCES);
+	}
+
+	/**
+	 * Start a bluez with the adapters /org/bluez/hci0 ... hciN-1, every adapter accepts supportedInstances advertisements
+	 * @param bus
+	 * @param adapters
+	 * @param supportedInstances
+	 * @return
+	 * @throws DBusException
+	 */
+	public static FakeBluez start(LocalBus bus, int adapters, int supportedInstances) throws DBusException {
+		FakeBluez bluez = new FakeBluez(DBusConnection.getConnection(bus.getPeerAddress()), null, adapters, supportedInstances);
+		bluez.export();
+		return bluez;
+	}
+
+	/**
+	 * Start a bluez on another bus, for example a dbus-daemon started by SystemBus
+	 * @param busAddress: an address dbus-java connects to
+	 * @param adapters
+	 * @param supportedInstances
+	 * @return
+	 * @throws DBusException
+	 */
+	public static FakeBluez start(String busAddress, int adapters, int supportedInstances) throws DBusException {
+		FakeBluez bluez = new FakeBluez(DBusConnection.getConnection(busAddress), null, adapters, supportedInstances);
+		bluez.export();
+		return bluez;
+	}
+
+	/**
+	 * Start a bluez on a loopback transport, the application must be started on the same transport
+	 * @param loopback
+	 * @param adapters
+	 * @param supportedInstances
+	 * @return
+	 * @throws DBusException
+	 */
+	public static FakeBluez start(BleLoopbackTransport loopback, int adapters, int supportedInstances) throws DBusException {
+		FakeBluez bluez = new FakeBluez(null, loopback, adapters, supportedInstances);
+		bluez.export();
+		return bluez;
+	}
+
+	public void stop() throws DBusException {
+		if(loopback != null) {
+			for (String path : adapters.keySet()) {
+				loopback.removeRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, path);
+			}
+			loopback.removeRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, "/");
+			return;
+		}
+		dbusConnection.releaseBusName(BleApplication.BLUEZ_DBUS_BUSNAME);
+		for (String path : adapters.keySet()) {
+			dbusConnection.unExportObject(path);
+		}
+		dbusConnection.unExportObject("/");
+		dbusConnection.disconnect();
+	}
+
+	public int getRegisteredApplications() {
+		return registeredApplications.get();
+	}
+
+	public int getRegisteredAdvertisements() {
+		return registeredAdvertisements.get();
+	}
+
+	public int getRegisteredAdvertisements(String adapterPath) {
+		return adapters.get(adapterPath).advertisements.get();
+	}
+
+	/**
+	 * Change the connection state of a device, as bluez does when a central connects.
+	 * A new device is published first with InterfacesAdded.
+	 * @param adapterPath
+	 * @param address
+	 * @param connected
+	 * @throws DBusException
+	 */
+	public void setDeviceConnected(String adapterPath, String address, boolean connected) throws DBusException {
+		String devicePath = adapterPath + "/dev_" + address.replace(':', '_');
+		if(!managedObjects.containsKey(new Path(devicePath))) {
+			addDevice(adapterPath, address, false);
+			transport.sendSignal(new InterfacesAdded("/", new Path(devicePath), managedObjects.get(new Path(devicePath))));
+		}
+		managedObjects.get(new Path(devicePath)).get(DEVICE_INTERFACE).put("Connected", new Variant<Boolean>(connected));
+
+		Map<String, Variant> changed = new HashMap<String, Variant>();
+		changed.put("Connected", new Variant<Boolean>(connected));
+		transport.sendSignal(new PropertiesChanged(devicePath, DEVICE_INTERFACE, changed, new ArrayList<String>()));
+	}
+
+	/**
+	 * Publish a device of an adapter without signals, as the devices that bluez already knows at startup.
+	 * @param adapterPath
+	 * @param address
+	 * @param connected
+	 * @return the device path
+	 */
+	public String addDevice(String adapterPath, String address, boolean connected) {
+		String devicePath = adapterPath + "/dev_" + address.replace(':', '_');
+		Map<String, Variant> deviceProperties = new HashMap<String, Variant>();
+		deviceProperties.put("Address", new Variant<String>(address));
+		deviceProperties.put("Connected", new Variant<Boolean>(connected));
+		Map<String, Map<String, Variant>> deviceInterfaces = new HashMap<String, Map<String, Variant>>();
+		deviceInterfaces.put(DEVICE_INTERFACE, deviceProperties);
+		managedObjects.put(new Path(devicePath), deviceInterfaces);
+		return devicePath;
+	}
+
+	private void export() throws DBusException {
+		for (String path : adapters.keySet()) {
+			Map<String, Map<String, Variant>> adapterInterfaces = new HashMap<String, Map<String, Variant>>();
+			Map<String, Variant> adapterProperties = new HashMap<String, Variant>();
+			adapterProperties.put("Powered", new Variant<Boolean>(false));
+			adapterInterfaces.put(BleApplication.BLUEZ_ADAPTER_INTERFACE, adapterProperties);
+			adapterInterfaces.put(BleApplication.BLUEZ_GATT_INTERFACE, new HashMap<String, Variant>());
+			Map<String, Variant> advertisingProperties = new HashMap<String, Variant>();
+			advertisingProperties.put("ActiveInstances", new Variant<Byte>((byte) 0));
+			advertisingProperties.put("SupportedInstances", new Variant<Byte>((byte) supportedInstances));
+			adapterInterfaces.put(BleApplication.BLUEZ_LE_ADV_INTERFACE, advertisingProperties);
+			managedObjects.put(new Path(path), adapterInterfaces);
+		}
+
+		publish("/", new ObjectManager() {
+			@Override
+			public boolean isRemote() {
+				return false;
+			}
+
+			@Override
+			public Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects() {
+				return managedObjects;
+			}
+		});
+		for (Map.Entry<String, Adapter> adapter : adapters.entrySet()) {
+			publish(adapter.getKey(), adapter.getValue());
+		}
+		if(dbusConnection != null) {
+			dbusConnection.requestBusName(BleApplication.BLUEZ_DBUS_BUSNAME);
+		}
+	}
+
+	private void publish(String path, DBusInterface object) throws DBusException {
+		if(loopback != null) {
+			loopback.addRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, path, object);
+		} else {
+			dbusConnection.exportObject(path, object);
+		}
+	}
+
+	private class Adapter implements GattManager1, LEAdvertisingManager1, Properties {
+
+		private final String path;
+		private final AtomicInteger advertisements = new AtomicInteger();
+
+		Adapter(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public boolean isRemote() {
+			return false;
+		}
+
+		@Override
+		public void RegisterApplication(DBusInterface application, Map<String, Variant> options) {
+			registeredApplications.incrementAndGet();
+		}
+
+		@Override
+		public void UnregisterApplication(DBusInterface application) {
+			registeredApplications.decrementAndGet();
+		}
+
+		@Override
+		public synchronized void RegisterAdvertisement(DBusInterface advertisement, Map<String, Variant> options) {
+			if(advertisements.get() >= supportedInstances) {
+				throw new DBusExecutionException("Maximum advertisements reached");
+			}
+			advertisements.incrementAndGet();
+			registeredAdvertisements.incrementAndGet();
+			instancesChanged();
+		}
+
+		@Override
+		public synchronized void UnregisterAdvertisement(DBusInterface advertisement) {
+			advertisements.decrementAndGet();
+			registeredAdvertisements.decrementAndGet();
+			instancesChanged();
+		}
+
+		/**
+		 * Publish the instances as bluez does: SupportedInstances counts the free ones
+		 */
+		private void instancesChanged() {
+			Map<String, Variant> changed = new HashMap<String, Variant>();
+			changed.put("ActiveInstances", new Variant<Byte>((byte) advertisements.get()));
+			changed.put("SupportedInstances", new Variant<Byte>((byte) (supportedInstances - advertisements.get())));
+			managedObjects.get(new Path(path)).get(BleApplication.BLUEZ_LE_ADV_INTERFACE).putAll(changed);
+			try {
+				transport.sendSignal(new PropertiesChanged(path, BleApplication.BLUEZ_LE_ADV_INTERFACE, changed, new ArrayList<String>()));
+			} catch (DBusException e) {
+				throw new DBusExecutionException(e.getMessage());
+			}
+		}
+
+		@Override
+		public <A> A Get(String interfaceName, String propertyName) {
+			return null;
+		}
+
+		@Override
+		public <A> void Set(String interfaceName, String propertyName, A value) {
+		}
+
+		@Override
+		public Map<String, Variant> GetAll(String interfaceName) {
+			return managedObjects.get(new Path(path)).get(interfaceName);
+		}
+	}
+
+}
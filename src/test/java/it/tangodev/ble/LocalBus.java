@@ -0,0 +1,81 @@
+package it.tangodev.ble;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.bin.DBusDaemon;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * LocalBus is a D-Bus daemon running inside the JVM of the tests and the benchmarks.
+ * It is the dbus-java daemon listening on a TCP port of localhost, so they exercise
+ * the real D-Bus marshalling without a system bus, the unix socket native library or bluetoothd.
+ */
+public class LocalBus {
+
+	private static final int START_ATTEMPTS = 100;
+	private static final long START_RETRY_MILLIS = 50;
+
+	private final int port;
+
+	private LocalBus(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Start a new daemon on a free port and wait until it accepts connections.
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static LocalBus start() throws IOException, InterruptedException {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		final String listenAddress = "tcp:host=localhost,port=" + port + ",guid=" + UUID.randomUUID().toString().replace("-", "");
+		Thread daemonThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					DBusDaemon.main(new String[] { "--listen", listenAddress });
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, "local-dbus-daemon");
+		daemonThread.setDaemon(true);
+		daemonThread.start();
+
+		LocalBus bus = new LocalBus(port);
+		for (int i = 0; i < START_ATTEMPTS; i++) {
+			try {
+				bus.connect().disconnect();
+				return bus;
+			} catch (DBusException e) {
+				Thread.sleep(START_RETRY_MILLIS);
+			}
+		}
+		throw new IllegalStateException("Local D-Bus daemon not started [address=" + bus.getAddress() + "]");
+	}
+
+	public String getAddress() {
+		return "tcp:host=localhost,port=" + port;
+	}
+
+	/**
+	 * dbus-java shares one connection per address string, this address reach the same daemon
+	 * without sharing the connections opened on getAddress().
+	 * @return
+	 */
+	public String getPeerAddress() {
+		return "tcp:host=127.0.0.1,port=" + port;
+	}
+
+	public DBusConnection connect() throws DBusException {
+		return DBusConnection.getConnection(getAddress());
+	}
+
+}